@@ -1,61 +1,279 @@
 package expressivo;
 
-import java.util.Map;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
  
 /**
  * An immutable type representing an addition expression
+ * 
+ * An addition holds the operands of a sum grouped to the left, as in
+ * (t0 + t1) + t2, in one flat array; sums nested as the left operand are
+ * flattened when it's created, since that is how they are grouped. A sum
+ * nested as the right operand stays one operand, so left() and right()
+ * are always the two operands the sum was made of.
  */
 public class Addition implements Expression {
-    private final Expression left;
-    private final Expression right;
+    private final Operands terms;
+    private final int termCount;
+    private final int hash;
 
     // Abstraction Function
-    //   represents an addition expression made up of
-    //   two subexpressions
+    //   represents the sum (...(terms[0] + terms[1]) + ...) + terms[termCount-1],
+    //   grouped from the left
     //
     // Representation Invariant
-    //   The left and right are non-null immutable expressions
+    //   - termCount >= 2
+    //   - terms[0..termCount) are non-null immutable expressions,
+    //     terms[0] not an Addition
+    //   - hash == terms.prefixHash(termCount), the polynomial hash of the
+    //     flattened terms t_0..t_n-1 of the sum, with nested sums spliced
+    //     in: sum of t_i.hashCode() * PRIME^(n-1-i), in int arithmetic
+    //   - terms.prefixSize(termCount) is n, the number of flattened terms
     //
     // Safety From Exposure
     //   - All fields are private and final
-    //   - left and right are immutable
-    //   - Addition shares its rep with other implementations
-    //     but they do not modify it
+    //   - terms may be shared with other additions, which only ever
+    //     append past their own terms, so the first termCount slots of
+    //     terms never change
+    //   - the terms are immutable
     
+    private static final int PRIME = 37;
+
     private void checkRep() {
-        assert left != null;
-        assert right != null;
+        assert terms != null;
+        assert termCount >= 2;
+        assert !(terms.get(0) instanceof Addition);
+        assert hash == terms.prefixHash(termCount);
     }
     public Addition(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+        if (left instanceof Addition) {
+            Addition sum = (Addition) left;
+            this.terms = appendTerm(sum.terms, sum.termCount, right);
+            this.termCount = sum.termCount + 1;
+        } else {
+            this.terms = appendTerm(Operands.of(false, left, left.hashCode()), 1, right);
+            this.termCount = 2;
+        }
+        this.hash = terms.prefixHash(termCount);
+        checkRep();
+    }
+    /** Creates the sum of the first termCount slots of terms */
+    private Addition(Operands terms, int termCount) {
+        this.terms = terms;
+        this.termCount = termCount;
+        this.hash = terms.prefixHash(termCount);
         checkRep();
     }
+    private static Operands appendTerm(Operands terms, int count, Expression term) {
+        // hash(t_0 .. t_n+k) = hash(t_0 .. t_n) * PRIME^k + hash(t_n+1 .. t_n+k)
+        // for a term that is itself a sum of k flattened terms
+        int hash = terms.prefixHash(count) * power(size(term)) + term.hashCode();
+        return terms.append(count, term, hash);
+    }
+    /** @return PRIME^exponent, in int arithmetic */
+    private static int power(int exponent) {
+        int result = 1;
+        int base = PRIME;
+        for (int e = exponent; e > 0; e >>= 1) {
+            if ((e & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+        return result;
+    }
+    /** @return the number of terms of e once nested sums are flattened: 1 unless e is a sum */
+    static int size(Expression e) {
+        return (e instanceof Addition) ? ((Addition) e).size() : 1;
+    }
+    /**
+     * @return an Addition equal to new Addition(left, right); the canonical one if
+     *         Interner is enabled
+     */
+    static Addition of(Expression left, Expression right) {
+        Addition sum = new Addition(left, right);
+        return Interner.isEnabled() ? Interner.canonical(sum) : sum;
+    }
+    /**
+     * @param terms one or more expressions
+     * @return an expression equal to terms[0].addExpr(terms[1])...addExpr(terms[n-1]),
+     *         with the same grouping, built in time linear in the number of terms
+     */
+    static Expression sum(List<Expression> terms) {
+        // Once the sum so far is an Addition, its operands are gathered in
+        // gathered[0..count) and built into one Addition at the end: when
+        // addExpr doubles the last operand, the new sum can't append to the
+        // operands of the old one, and would copy all of them.
+        // addExpr itself is only called again when e could equal the whole
+        // sum so far or its left operand; size is the number of flattened
+        // terms of the sum so far.
+        Expression result = terms.get(0);
+        Expression[] gathered = null;
+        int count = 0;
+        int size = 0;
+        for (int i = 1; i < terms.size(); i++) {
+            final Expression e = terms.get(i);
+            if (gathered == null) {
+                result = result.addExpr(e);
+                if (result instanceof Addition) {
+                    count = ((Addition) result).termCount;
+                    size = ((Addition) result).size();
+                    gathered = ((Addition) result).gather();
+                }
+                continue;
+            }
+            if (e.equals(Value.ZERO)) {
+                continue;
+            }
+            final Expression last = gathered[count - 1];
+            final int eSize = size(e);
+            if ((e instanceof Addition && (eSize == size || eSize == size - size(last)))
+                    || (count == 2 && gathered[0].equals(e))) {
+                result = build(gathered, count).addExpr(e);
+                gathered = null;
+                if (result instanceof Addition) {
+                    count = ((Addition) result).termCount;
+                    size = ((Addition) result).size();
+                    gathered = ((Addition) result).gather();
+                }
+                continue;
+            }
+            if (last.equals(e)) {
+                gathered[count - 1] = last.multiplyExpr(Value.TWO);
+                size += size(gathered[count - 1]) - size(last);
+                continue;
+            }
+            if (count == gathered.length) {
+                gathered = Arrays.copyOf(gathered, 2 * count);
+            }
+            gathered[count++] = e;
+            size += eSize;
+        }
+        return (gathered == null) ? result : build(gathered, count);
+    }
+    /** @return a new array, with room to grow, starting with the operands of this */
+    private Expression[] gather() {
+        final Expression[] gathered = new Expression[2 * termCount];
+        for (int i = 0; i < termCount; i++) {
+            gathered[i] = terms.get(i);
+        }
+        return gathered;
+    }
+    /** @return the sum of gathered[0..count) grouped from the left, count >= 2, gathered[0] not a sum */
+    private static Addition build(Expression[] gathered, int count) {
+        Operands terms = Operands.of(false, gathered[0], gathered[0].hashCode());
+        for (int i = 1; i < count; i++) {
+            terms = appendTerm(terms, i, gathered[i]);
+        }
+        final Addition sum = new Addition(terms, count);
+        return Interner.isEnabled() ? Interner.canonical(sum) : sum;
+    }
+    /** @return the number of operands of this sum as grouped from the left, >= 2 */
+    int termCount() {
+        return termCount;
+    }
+    /** @return the operand at index i of this sum, 0 <= i < termCount() */
+    Expression term(int i) {
+        assert 0 <= i && i < termCount;
+        return terms.get(i);
+    }
+    /** @return the operands whose first termCount() slots are the operands of this sum */
+    Operands terms() {
+        return terms;
+    }
+    /** @return the number of terms of this sum once nested sums are flattened, >= 2 */
+    int size() {
+        return terms.prefixSize(termCount);
+    }
+    /** @return the terms of this sum once nested sums are flattened, read left to right */
+    Expression[] flatTerms() {
+        final Expression[] flat = new Expression[size()];
+        int count = 0;
+        // operands still to flatten, the next one on top
+        final Deque<Expression> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            final Expression e = pending.pop();
+            if (e instanceof Addition) {
+                final Addition sum = (Addition) e;
+                for (int i = sum.termCount - 1; i >= 0; i--) {
+                    pending.push(sum.terms.get(i));
+                }
+            } else {
+                flat[count++] = e;
+            }
+        }
+        assert count == flat.length;
+        return flat;
+    }
+    /**
+     * @param count 1 <= count <= termCount()
+     * @return the sum of the first count operands, or the first operand if count is 1
+     */
+    Expression prefix(int count) {
+        if (count == 1) {
+            return terms.get(0);
+        }
+        return (count == termCount) ? this : new Addition(terms, count);
+    }
+    /** @return the left operand of this addition */
+    Expression left() {
+        return prefix(termCount - 1);
+    }
+    /** @return the right operand of this addition */
+    Expression right() {
+        return terms.get(termCount - 1);
+    }
+    /** @return the variables mask of this, as defined by Metadata */
+    long variables() {
+        return terms.prefixVariables(termCount);
+    }
+    /** @return the number of nodes of this as a binary tree, as defined by Metadata */
+    long nodeCount() {
+        return terms.prefixNodes(termCount);
+    }
+    /** @return the depth of this as a binary tree, as defined by Metadata */
+    int depth() {
+        return terms.prefixDepth(termCount);
+    }
+    /** @return the degree of this as written, as defined by Metadata */
+    int degree() {
+        return terms.prefixDegree(termCount);
+    }
+    /** @return the constants hash of this, as defined by Metadata */
+    int constants() {
+        return terms.prefixConstants(termCount);
+    }
     @Override public Expression addExpr(Expression e) {
-        if (e.equals(new Value(0))) {
+        if (e.equals(Value.ZERO)) {
             return this;
         }
-        Value two = new Value(2);
+        Value two = Value.TWO;
+        final Expression left = this.left();
+        final Expression right = this.right();
         if (this.equals(e)) {
-            Expression newLeft = this.left.multiplyExpr(two);
-            Expression newRight = this.right.multiplyExpr(two);
+            Expression newLeft = left.multiplyExpr(two);
+            Expression newRight = right.multiplyExpr(two);
 
             checkRep();
-            return new Addition(newLeft, newRight);
+            return Addition.of(newLeft, newRight);
         }
-        if (this.left.equals(e)) {
-            Expression newLeft = this.left.multiplyExpr(two);
+        if (left.equals(e)) {
+            Expression newLeft = left.multiplyExpr(two);
 
             checkRep();
-            return new Addition(newLeft, this.right);
+            return Addition.of(newLeft, right);
         }
-        if (this.right.equals(e)) {
-            Expression newRight = this.right.multiplyExpr(two);
+        if (right.equals(e)) {
+            Expression newRight = right.multiplyExpr(two);
 
             checkRep();
-            return new Addition(this.left, newRight);
+            return Addition.of(left, newRight);
         }
-        return new Addition(this, e);
+        return Addition.of(this, e);
     }
     /**
      * Returns the result of combining this and another expression with a multiplication
@@ -68,82 +286,82 @@ public class Addition implements Expression {
      *         by e 
      */
     @Override public Expression multiplyExpr(Expression e) {
-        Value zero = new Value(0);
+        Value zero = Value.ZERO;
         if (e.equals(zero)) {
             return zero;
         }
-        if (e.equals(new Value(1))) {
+        if (e.equals(Value.ONE)) {
             return this;
         }
-        return new Multiplication(this, e);
+        return Multiplication.of(this, e);
     }
     // TODO: have it simplify such that x + x + 3*x = 5*x
     // Use getCoefficient
     @Override public Expression addVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Addition(new Variable(variable), this);
+        return Addition.of(Variable.of(variable), this);
     }
     @Override public Expression multiplyVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Multiplication(new Variable(variable), this);
+        return Multiplication.of(Variable.of(variable), this);
     }
     @Override public Expression addConstant(double num) {
         assert num >= 0 && Double.isFinite(num);
         
-        Value valNum = new Value(num);
-        if (valNum.equals(new Value(0))) {
+        Value valNum = Value.of(num);
+        if (valNum.equals(Value.ZERO)) {
             return this;
         }
-        if (this.left.equals(valNum)) {
-            Expression newLeft = this.left.addConstant(num);
+        final Expression left = this.left();
+        final Expression right = this.right();
+        if (left.equals(valNum)) {
+            Expression newLeft = left.addConstant(num);
             checkRep();
-            return new Addition(newLeft, this.right);
+            return Addition.of(newLeft, right);
         }
-        if (this.right.equals(valNum)) {
-            Expression newRight = this.right.addConstant(num);
+        if (right.equals(valNum)) {
+            Expression newRight = right.addConstant(num);
             checkRep();
-            return new Addition(this.left, newRight);
+            return Addition.of(left, newRight);
         }
         checkRep();
-        return new Addition(valNum, this);
+        return Addition.of(valNum, this);
     }
     @Override public Expression appendCoefficient(double num) {
         assert num >= 0 && Double.isFinite(num);
         
-        Value valNum = new Value(num);
-        Value zero = new Value(0);
+        Value valNum = Value.of(num);
+        Value zero = Value.ZERO;
         if (valNum.equals(zero)) {
             return zero;
         }
-        if (valNum.equals(new Value(1))) {
+        if (valNum.equals(Value.ONE)) {
             return this;
         }
+        // (u + v)*c = u*c + v*c, where u = the first i operands, v = operand i
+        Expression result = terms.get(0).appendCoefficient(num);
+        for (int i = 1; i < termCount; i++) {
+            result = result.addExpr(terms.get(i).appendCoefficient(num));
+        }
         checkRep();
-        return this.left.appendCoefficient(num)
-                .addExpr(this.right.appendCoefficient(num));
+        return result;
     }
     @Override public Expression differentiate(String variable) {
         assert variable != null && variable != "";
-        // d(u + v)/dx = du/dx + dv/dx
-        // where u + v = this, u = left, v = right
-        Expression diffLeft = left.differentiate(variable);
-        Expression diffRight = right.differentiate(variable);
-
-        checkRep();
-        return diffLeft.addExpr(diffRight);     
+        // d(u + v)/dx = du/dx + dv/dx, operand by operand, see Traversal
+        return Traversal.fold(this, new Traversal.Differentiation(variable));
     }
-    @Override public Expression substitute(Map<String, Double> environment) {
+    @Override public Expression substitute(Environment environment) {
         assert environment != null;
-        
-        return left.substitute(environment)
-                .addExpr(right.substitute(environment));
+        return Traversal.fold(this, new Traversal.Substitution(environment));
     }
     @Override public String toString() {
-        return left.toString()
-               + " + "
-               + right.toString();
+        return Rendering.render(this);
+    }
+    @Override public void appendTo(Appendable out) throws IOException {
+        new Traversal.Appending(out).render(this);
     }
     /**
      * Checks if an object is equal to this addition expression
@@ -165,18 +383,18 @@ public class Addition implements Expression {
             return false;
         }
         Addition thatAdd = (Addition) thatObject;
-
+        if (this.hash != thatAdd.hash
+                || this.size() != thatAdd.size()) {
+            return false;
+        }
+        if (this.termCount == thatAdd.termCount
+                && this.terms.sameItems(termCount, thatAdd.terms)) {
+            return true;
+        }
         checkRep();
-        return this.toString().equals(thatAdd.toString());
+        return Traversal.equal(this, thatAdd);
     }
     @Override public int hashCode() {
-        final int prime = 37;
-        int result = 1;
-        
-        result = prime*result + left.hashCode();
-        result = prime*result + right.hashCode();
-
-        checkRep();
-        return result;
+        return hash;
     }
 }
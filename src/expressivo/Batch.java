@@ -0,0 +1,84 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs one command over a list of inputs in a ForkJoinPool, for the batch
+ * methods of Commands.
+ *
+ * The inputs are split in halves until a slice is small enough, about
+ * eight slices per worker, so that idle workers can steal the rest of a
+ * slow half. Each slice gets its own instance of the command, so commands
+ * may keep state, such as caches or environments, that isn't thread-safe,
+ * and workers don't contend for it. Each result is written to its own
+ * index of an array, which keeps them in input order without locking.
+ */
+final class Batch {
+    /** Slices per worker of the pool, so that uneven inputs still balance */
+    private static final int SLICES_PER_WORKER = 8;
+
+    private Batch() {
+        // not instantiable
+    }
+
+    /**
+     * @param inputs inputs to the command
+     * @param pool pool whose workers run the command
+     * @param commands makes the command run on the inputs of one slice, by
+     *        one thread; any exception the command throws but
+     *        IllegalArgumentException stops the batch and is thrown
+     * @return unmodifiable list of the results, result i for inputs[i]
+     */
+    static List<CommandResult> run(List<String> inputs, ForkJoinPool pool,
+            Supplier<Function<String, String>> commands) {
+        final String[] in = inputs.toArray(new String[0]);
+        final CommandResult[] out = new CommandResult[in.length];
+        final int grain = Math.max(1, in.length / (SLICES_PER_WORKER * pool.getParallelism()));
+        pool.invoke(new Slice(in, out, commands, grain, 0, in.length));
+        return Collections.unmodifiableList(Arrays.asList(out));
+    }
+
+    /** Runs the command on in[from..to) */
+    private static final class Slice extends RecursiveAction {
+        private static final long serialVersionUID = 1;
+
+        private final String[] in;
+        private final CommandResult[] out;
+        private final Supplier<Function<String, String>> commands;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        private Slice(String[] in, CommandResult[] out, Supplier<Function<String, String>> commands,
+                int grain, int from, int to) {
+            this.in = in;
+            this.out = out;
+            this.commands = commands;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+        @Override protected void compute() {
+            if (to - from > grain) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Slice(in, out, commands, grain, from, middle),
+                        new Slice(in, out, commands, grain, middle, to));
+                return;
+            }
+            final Function<String, String> command = commands.get();
+            for (int i = from; i < to; i++) {
+                try {
+                    out[i] = CommandResult.of(command.apply(in[i]));
+                } catch (IllegalArgumentException iae) {
+                    out[i] = CommandResult.failed(iae);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package expressivo;
+
+import expressivo.parser.ExpressionFastParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A mutable iterator over the expressions of a file, one per line.
+ *
+ * The file is read through a BufferedReader, one line at a time, as
+ * ISO-8859-1, so every byte is one character and bytes outside ASCII are
+ * rejected by the parser rather than by the decoder. Lines end with '\n',
+ * '\r' or "\r\n"; empty lines are skipped. A line that fails to parse is
+ * returned with its error message instead of an expression, and loading
+ * goes on with the next line.
+ *
+ * Lines are parsed with the parser behind Expression.parse, without going
+ * through ParseCache, so loading a large file doesn't flush the cache.
+ * Loaders are not thread-safe, and must be closed to release the file.
+ */
+public class BulkLoader implements Iterator<BulkLoader.Line>, Closeable {
+    private final BufferedReader in;
+    private long lineNumber;
+    private Line next;
+
+    // Abstraction Function
+    //   represents the nonempty lines of the file read by in that come
+    //   after line lineNumber, preceded by line next if it is not null,
+    //   which has already been parsed
+    //
+    // Representation Invariant
+    //   - lineNumber >= 0
+    //   - next is null, or next.number() == lineNumber
+    //
+    // Safety From Exposure
+    //   - all fields are private; in is never returned
+
+    private void checkRep() {
+        assert lineNumber >= 0;
+        assert next == null || next.number() == lineNumber;
+    }
+    /**
+     * Opens a file of expressions
+     * @param file file to read, with one expression per line
+     * @throws IOException if the file can't be opened
+     */
+    public BulkLoader(Path file) throws IOException {
+        this.in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1);
+        checkRep();
+    }
+    /**
+     * Streams the expressions of a file; closing the stream closes the file
+     * @param file file to read, with one expression per line
+     * @return the lines of file, in order, as by the iterator of a new BulkLoader;
+     *         an IOException while reading is thrown as UncheckedIOException
+     * @throws IOException if the file can't be opened
+     */
+    public static Stream<Line> lines(Path file) throws IOException {
+        final BulkLoader loader = new BulkLoader(file);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(loader,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        loader.close();
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                });
+    }
+    /**
+     * @return true if there is another nonempty line
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readLine();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        return next != null;
+    }
+    /**
+     * @return the next nonempty line, parsed
+     * @throws NoSuchElementException if there are no more lines
+     * @throws UncheckedIOException if the file can't be read
+     */
+    @Override public Line next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final Line line = next;
+        next = null;
+        return line;
+    }
+    /** Closes the file; the lines already returned stay valid */
+    @Override public void close() throws IOException {
+        in.close();
+    }
+    /** @return the next nonempty line, parsed, or null at the end of the file */
+    private Line readLine() throws IOException {
+        for (String text = in.readLine(); text != null; text = in.readLine()) {
+            lineNumber++;
+            if (!text.isEmpty()) {
+                checkRep();
+                return parse(text);
+            }
+        }
+        return null;
+    }
+    /** @return line lineNumber, parsed from text */
+    private Line parse(String text) {
+        try {
+            return new Line(lineNumber, ExpressionFastParser.parse(text), null);
+        } catch (IllegalArgumentException iae) {
+            return new Line(lineNumber, null, iae.getMessage());
+        }
+    }
+
+    /** One nonempty line of a file, with its expression or the reason it has none */
+    public static final class Line {
+        private final long number;
+        private final Expression expression;
+        private final String error;
+
+        // Abstraction Function
+        //   represents line number number of a file, which parsed to
+        //   expression if error is null, or failed to load because of error
+        //
+        // Representation Invariant
+        //   - number >= 1
+        //   - exactly one of expression and error is null
+        //
+        // Safety From Exposure
+        //   - all fields are private, final and immutable
+
+        private Line(long number, Expression expression, String error) {
+            this.number = number;
+            this.expression = expression;
+            this.error = error;
+            assert number >= 1;
+            assert (expression == null) != (error == null);
+        }
+        /** @return the line number, counting from 1, empty lines included */
+        public long number() {
+            return number;
+        }
+        /** @return true if the line parsed to an expression */
+        public boolean isValid() {
+            return expression != null;
+        }
+        /**
+         * @return the expression on the line
+         * @throws IllegalStateException if the line didn't parse
+         */
+        public Expression expression() {
+            if (expression == null) {
+                throw new IllegalStateException("line " + number + ": " + error);
+            }
+            return expression;
+        }
+        /** @return why the line didn't parse, or null if it did */
+        public String error() {
+            return error;
+        }
+        @Override public String toString() {
+            return number + ": " + (isValid() ? expression.toString() : "error: " + error);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package expressivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates JVM classes implementing Evaluator from stack programs.
+ *
+ * The instructions of a program map one to one onto JVM instructions:
+ * constants become ldc2_w (or dconst), variables aload/push/daload, and
+ * sums and products dadd and dmul, so the generated method computes exactly
+ * what the program does, with no boxing, dispatch or allocation. The JIT
+ * won't compile methods longer than 8000 bytes, so a sum too long for one
+ * method is split into chunks, each in a static method of its own, and
+ * eval() adds up their results.
+ *
+ * Each class is defined by its own class loader, so it can be unloaded once
+ * its evaluator is no longer used.
+ */
+final class BytecodeGenerator {
+    /** Longest method the JIT compiles, -XX:HugeMethodLimit */
+    static final int MAX_METHOD_BYTES = 8000;
+    private static final int MAX_POOL_ENTRIES = 65535;
+    private static final int MAX_SLOT = Short.MAX_VALUE;
+
+    private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+
+    // class file constants, from the JVM specification, chapter 4
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_8 = 52;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // instructions
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DMUL = 0x6b;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    // fixed constant pool entries
+    private static final int THIS_NAME = 1;
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_NAME = 3;
+    private static final int OBJECT_CLASS = 4;
+    private static final int EVALUATOR_NAME = 5;
+    private static final int EVALUATOR_CLASS = 6;
+    private static final int INIT_NAME = 7;
+    private static final int INIT_DESCRIPTOR = 8;
+    private static final int INIT_NAME_AND_TYPE = 9;
+    private static final int OBJECT_INIT = 10;
+    private static final int EVAL_NAME = 11;
+    private static final int EVAL_DESCRIPTOR = 12;
+    private static final int CODE_NAME = 13;
+    private static final int FIRST_FREE_ENTRY = 14;
+
+    private BytecodeGenerator() {
+        // not instantiable
+    }
+    /**
+     * @param program a stack program
+     * @return number of bytes of the JVM code for program, or -1 if it
+     *         can't be generated
+     */
+    static int codeLength(StackProgram program) {
+        int length = 1; // dreturn
+        for (int i = 0; i < program.length(); i++) {
+            switch (program.op(i)) {
+            case StackProgram.CONST:
+                double num = program.constant(program.operand(i));
+                length += isDconst(num) ? 1 : 3;
+                break;
+            case StackProgram.LOAD:
+                int slot = program.operand(i);
+                if (slot > MAX_SLOT) {
+                    return -1;
+                }
+                length += 2 + pushLength(slot);
+                break;
+            default:
+                length += 1;
+                break;
+            }
+        }
+        return length;
+    }
+    /**
+     * @param chunks nonempty programs, each of codeLength() <= MAX_METHOD_BYTES,
+     *        whose sum is the expression to evaluate
+     * @return an evaluator returning the sum of the chunks, or null if they
+     *         don't fit in one class
+     */
+    static Evaluator generate(List<StackProgram> chunks) {
+        assert !chunks.isEmpty();
+        // eval() either holds the only chunk, or calls each chunk, 5 bytes a call
+        if (chunks.size() > 1 && 5 * chunks.size() > MAX_METHOD_BYTES) {
+            return null;
+        }
+        try {
+            String name = "expressivo/CompiledEvaluator$" + CLASS_COUNT.incrementAndGet();
+            byte[] classFile = new ClassFile(name, chunks).toBytes();
+            if (classFile == null) {
+                return null;
+            }
+            Class<?> generated = new GeneratedClassLoader().define(name.replace('/', '.'), classFile);
+            return (Evaluator) generated.getDeclaredConstructor().newInstance();
+        } catch (IOException ioe) {
+            throw new AssertionError("ByteArrayOutputStream doesn't throw IOException", ioe);
+        } catch (InstantiationException | IllegalAccessException
+                | InvocationTargetException | NoSuchMethodException e) {
+            throw new AssertionError("generated class is not a valid Evaluator", e);
+        }
+    }
+    private static boolean isDconst(double num) {
+        return Double.doubleToRawLongBits(num) == 0L || num == 1.0;
+    }
+    private static int pushLength(int n) {
+        return (n <= 5) ? 1 : (n <= Byte.MAX_VALUE) ? 2 : 3;
+    }
+
+    /** The bytes of one generated class */
+    private static final class ClassFile {
+        private final String name;
+        private final List<StackProgram> chunks;
+        private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private final DataOutputStream poolOut = new DataOutputStream(pool);
+        private final Map<Long, Integer> doubleEntries = new HashMap<>();
+        private final List<Integer> chunkMethods = new ArrayList<>();
+        private final List<Integer> chunkNames = new ArrayList<>();
+        private int nextEntry = 1;
+
+        private ClassFile(String name, List<StackProgram> chunks) {
+            this.name = name;
+            this.chunks = chunks;
+        }
+        /** @return the class file, or null if its constant pool would be too large */
+        private byte[] toBytes() throws IOException {
+            writeFixedEntries();
+            if (chunks.size() > 1) {
+                for (int i = 0; i < chunks.size(); i++) {
+                    int chunkName = utf8("chunk" + i);
+                    int nameAndType = entry(CONSTANT_NAME_AND_TYPE, chunkName, EVAL_DESCRIPTOR);
+                    chunkNames.add(chunkName);
+                    chunkMethods.add(entry(CONSTANT_METHODREF, THIS_CLASS, nameAndType));
+                }
+            }
+            for (StackProgram chunk : chunks) {
+                for (int i = 0; i < chunk.length(); i++) {
+                    if (chunk.op(i) == StackProgram.CONST) {
+                        double num = chunk.constant(chunk.operand(i));
+                        if (!isDconst(num)) {
+                            doubleEntry(num);
+                        }
+                    }
+                }
+            }
+            if (nextEntry > MAX_POOL_ENTRIES) {
+                return null;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(JAVA_8);
+            out.writeShort(nextEntry);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(THIS_CLASS);
+            out.writeShort(OBJECT_CLASS);
+            out.writeShort(1);
+            out.writeShort(EVALUATOR_CLASS);
+            out.writeShort(0); // fields
+            out.writeShort(2 + chunkMethods.size());
+            writeConstructor(out);
+            if (chunks.size() == 1) {
+                writeMethod(out, ACC_PUBLIC, EVAL_NAME, 2,
+                        program(chunks.get(0), ALOAD_1), 2 * chunks.get(0).maxDepth());
+            } else {
+                writeMethod(out, ACC_PUBLIC, EVAL_NAME, 2, callChunks(), 4);
+                for (int i = 0; i < chunks.size(); i++) {
+                    writeMethod(out, ACC_PRIVATE | ACC_STATIC, chunkNames.get(i), 1,
+                            program(chunks.get(i), ALOAD_0), 2 * chunks.get(i).maxDepth());
+                }
+            }
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        }
+        private void writeFixedEntries() throws IOException {
+            utf8(name);
+            entry(CONSTANT_CLASS, THIS_NAME);
+            utf8("java/lang/Object");
+            entry(CONSTANT_CLASS, OBJECT_NAME);
+            utf8(Evaluator.class.getName().replace('.', '/'));
+            entry(CONSTANT_CLASS, EVALUATOR_NAME);
+            utf8("<init>");
+            utf8("()V");
+            entry(CONSTANT_NAME_AND_TYPE, INIT_NAME, INIT_DESCRIPTOR);
+            entry(CONSTANT_METHODREF, OBJECT_CLASS, INIT_NAME_AND_TYPE);
+            utf8("eval");
+            utf8("([D)D");
+            utf8("Code");
+            assert nextEntry == FIRST_FREE_ENTRY;
+        }
+        private int utf8(String value) throws IOException {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+            return nextEntry++;
+        }
+        private int entry(int tag, int... indices) throws IOException {
+            poolOut.writeByte(tag);
+            for (int index : indices) {
+                poolOut.writeShort(index);
+            }
+            return nextEntry++;
+        }
+        private int doubleEntry(double num) throws IOException {
+            Integer entry = doubleEntries.get(Double.doubleToRawLongBits(num));
+            if (entry != null) {
+                return entry;
+            }
+            poolOut.writeByte(CONSTANT_DOUBLE);
+            poolOut.writeDouble(num);
+            doubleEntries.put(Double.doubleToRawLongBits(num), nextEntry);
+            nextEntry += 2; // doubles take two entries
+            return nextEntry - 2;
+        }
+        private void writeConstructor(DataOutputStream out) throws IOException {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            code.write(ALOAD_0);
+            code.write(INVOKESPECIAL);
+            writeShort(code, OBJECT_INIT);
+            code.write(RETURN);
+            writeMethod(out, ACC_PUBLIC, INIT_NAME, 1, code, 1);
+        }
+        /** @return code adding up the results of the chunk methods */
+        private ByteArrayOutputStream callChunks() {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            for (int i = 0; i < chunks.size(); i++) {
+                code.write(ALOAD_1);
+                code.write(INVOKESTATIC);
+                writeShort(code, chunkMethods.get(i));
+                if (i > 0) {
+                    code.write(DADD);
+                }
+            }
+            code.write(DRETURN);
+            return code;
+        }
+        /** @return code computing program, with the slots array in local slotsLoad */
+        private ByteArrayOutputStream program(StackProgram program, int slotsLoad) {
+            ByteArrayOutputStream code = new ByteArrayOutputStream();
+            for (int i = 0; i < program.length(); i++) {
+                switch (program.op(i)) {
+                case StackProgram.CONST:
+                    double num = program.constant(program.operand(i));
+                    if (isDconst(num)) {
+                        code.write(num == 0 ? DCONST_0 : DCONST_1);
+                    } else {
+                        code.write(LDC2_W);
+                        writeShort(code, doubleEntries.get(Double.doubleToRawLongBits(num)));
+                    }
+                    break;
+                case StackProgram.LOAD:
+                    code.write(slotsLoad);
+                    push(code, program.operand(i));
+                    code.write(DALOAD);
+                    break;
+                case StackProgram.ADD:
+                    code.write(DADD);
+                    break;
+                default:
+                    code.write(DMUL);
+                    break;
+                }
+            }
+            code.write(DRETURN);
+            return code;
+        }
+        private void writeMethod(DataOutputStream out, int access, int methodName,
+                int maxLocals, ByteArrayOutputStream code, int maxStack) throws IOException {
+            out.writeShort(access);
+            out.writeShort(methodName);
+            out.writeShort(methodName == INIT_NAME ? INIT_DESCRIPTOR : EVAL_DESCRIPTOR);
+            out.writeShort(1); // attributes: Code
+            out.writeShort(CODE_NAME);
+            out.writeInt(12 + code.size());
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.size());
+            code.writeTo(out);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+        private static void push(ByteArrayOutputStream code, int n) {
+            if (n <= 5) {
+                code.write(ICONST_0 + n);
+            } else if (n <= Byte.MAX_VALUE) {
+                code.write(BIPUSH);
+                code.write(n);
+            } else {
+                code.write(SIPUSH);
+                writeShort(code, n);
+            }
+        }
+        private static void writeShort(ByteArrayOutputStream code, int n) {
+            code.write(n >>> 8);
+            code.write(n);
+        }
+    }
+
+    /** Defines one generated class */
+    private static final class GeneratedClassLoader extends ClassLoader {
+        private GeneratedClassLoader() {
+            super(Evaluator.class.getClassLoader());
+        }
+        private Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
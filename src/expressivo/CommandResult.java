@@ -0,0 +1,69 @@
+package expressivo;
+
+/**
+ * An immutable result of one command of a batch: either the output of the
+ * command, or the message of the IllegalArgumentException it threw.
+ */
+public final class CommandResult {
+    private final String output;
+    private final String error;
+
+    // Abstraction Function
+    //   represents a command that returned output if error is null, or
+    //   failed with message error otherwise
+    //
+    // Representation Invariant
+    //   - exactly one of output and error is null
+    //
+    // Safety From Exposure
+    //   - all fields are private, final and immutable
+
+    private CommandResult(String output, String error) {
+        this.output = output;
+        this.error = error;
+        checkRep();
+    }
+    private void checkRep() {
+        assert (output == null) != (error == null);
+    }
+    /** @return the result of a command that returned output */
+    static CommandResult of(String output) {
+        assert output != null;
+        return new CommandResult(output, null);
+    }
+    /** @return the result of a command that threw iae */
+    static CommandResult failed(IllegalArgumentException iae) {
+        return new CommandResult(null, String.valueOf(iae.getMessage()));
+    }
+    /** @return true if the command returned an output */
+    public boolean isValid() {
+        return output != null;
+    }
+    /**
+     * @return the output of the command
+     * @throws IllegalArgumentException with the original message if the command failed
+     */
+    public String output() {
+        if (output == null) {
+            throw new IllegalArgumentException(error);
+        }
+        return output;
+    }
+    /** @return the message of the exception the command threw, or null if it didn't */
+    public String error() {
+        return error;
+    }
+    @Override public boolean equals(Object thatObject) {
+        if (!(thatObject instanceof CommandResult)) {
+            return false;
+        }
+        CommandResult that = (CommandResult) thatObject;
+        return isValid() ? output.equals(that.output) : error.equals(that.error);
+    }
+    @Override public int hashCode() {
+        return isValid() ? output.hashCode() : ~error.hashCode();
+    }
+    @Override public String toString() {
+        return isValid() ? output : "error: " + error;
+    }
+}
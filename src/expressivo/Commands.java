@@ -3,7 +3,10 @@
  */
 package expressivo;
 
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * String-based commands provided by the expression system.
@@ -27,10 +30,22 @@ public class Commands {
         assert expression != null && expression != "";
         assert variable != null && variable != "";
         
-        Expression expr = Expression.parse(expression);
-        Expression deriv = expr.differentiate(variable);
+        return differentiate(Expression.parse(expression), variable).toString();
+    }
+    
+    /**
+     * Differentiate an expression with respect to a variable, without parsing or rendering it.
+     * @param expression the expression to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return expression's derivative with respect to variable, equal to
+     *         expression.differentiate(variable); identical subtrees are
+     *         differentiated once, in a DerivativeCache used for this call only
+     */
+    public static Expression differentiate(Expression expression, String variable) {
+        assert expression != null;
+        assert variable != null && variable != "";
         
-        return deriv.toString();
+        return new DerivativeCache(DerivativeCache.DEFAULT_CAPACITY).differentiate(expression, variable);
     }
     
     /**
@@ -42,17 +57,212 @@ public class Commands {
      * @return an expression equal to the input, but after substituting every variable v that appears in both
      *         the expression and the environment with its value, environment.get(v).  If there are no
      *         variables left in this expression after substitution, it must be evaluated to a single number.
-     *         Additional simplifications to the expression may be done at the implementor's discretion.
+     *         Additional simplifications to the expression may be done at the implementor's discretion;
+     *         sums and products without any variable of environment are left as parsed, so
+     *         simplify("z+8+4+4", {}) is "z + 8 + 8", not the "z + 16" of rebuilding them.
      * @throws IllegalArgumentException if the expression is invalid
      */
     public static String simplify(String expression, Map<String,Double> environment) {
         assert expression != null && expression != "";
         assert environment != null;
         
-        Expression expr = Expression.parse(expression);
-        Expression simpExpr = expr.substitute(environment);
+        return simplify(Expression.parse(expression), environment).toString();
+    }
+    
+    /**
+     * Simplify an expression, without parsing or rendering it.
+     * @param expression the expression to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @return expression after substituting every variable v that appears in both
+     *         the expression and the environment with its value, environment.get(v)
+     */
+    public static Expression simplify(Expression expression, Map<String,Double> environment) {
+        assert expression != null;
+        assert environment != null;
         
-        return simpExpr.toString();
+        return expression.substitute(environment);
+    }
+    
+    /**
+     * Simplify an expression, with the values of variables given by slot.
+     * @param expression the expression to simplify
+     * @param environment values of variables; variables without a slot, or unbound, are kept
+     * @return an expression equal to the input, but after substituting every variable v bound in
+     *         environment with its value, as simplify(String, Map) does
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static String simplify(String expression, Environment environment) {
+        assert expression != null && expression != "";
+        assert environment != null;
+        
+        return simplify(Expression.parse(expression), environment).toString();
+    }
+    
+    /**
+     * Simplify an expression, with the values of variables given by slot, without
+     * parsing or rendering it.
+     * @param expression the expression to simplify
+     * @param environment values of variables; variables without a slot, or unbound, are kept
+     * @return expression after substituting every variable v bound in environment with its value
+     */
+    public static Expression simplify(Expression expression, Environment environment) {
+        assert expression != null;
+        assert environment != null;
+        
+        return expression.substitute(environment);
+    }
+    
+    /**
+     * Rewrite an expression in canonical polynomial form.
+     * @param expression the expression to rewrite
+     * @return an expression equal to the input, with its products expanded and every
+     *         like term collected, as Polynomial.of(expression).toExpression(), so
+     *         canonicalize("x + y + x") is "(2)*(x) + y"
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static String canonicalize(String expression) {
+        assert expression != null && expression != "";
+        
+        return canonicalize(Expression.parse(expression)).toString();
+    }
+    
+    /**
+     * Rewrite an expression in canonical polynomial form, without parsing or rendering it.
+     * @param expression the expression to rewrite
+     * @return Polynomial.of(expression).toExpression()
+     */
+    public static Expression canonicalize(Expression expression) {
+        assert expression != null;
+        
+        return Polynomial.of(expression).toExpression();
+    }
+    
+    /**
+     * Differentiate a batch of expressions with respect to a variable, in parallel
+     * in the common ForkJoinPool.
+     * @param expressions the expressions to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @return one result per expression, in the same order: the output of
+     *         differentiate(expression, variable), or the message of the
+     *         IllegalArgumentException it threw
+     */
+    public static List<CommandResult> differentiateAll(List<String> expressions, String variable) {
+        return differentiateAll(expressions, variable, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Differentiate a batch of expressions with respect to a variable, in parallel.
+     * @param expressions the expressions to differentiate
+     * @param variable the variable to differentiate by, a case-sensitive nonempty string of letters.
+     * @param pool pool whose workers differentiate the expressions
+     * @return one result per expression, in the same order: the output of
+     *         differentiate(expression, variable), or the message of the
+     *         IllegalArgumentException it threw. Derivatives are cached per
+     *         part of the batch, not per expression.
+     */
+    public static List<CommandResult> differentiateAll(List<String> expressions, String variable,
+            ForkJoinPool pool) {
+        assert expressions != null && pool != null;
+        assert variable != null && variable != "";
+        
+        // a cache per slice of the batch, so that its expressions share
+        // derivatives while no two workers take the same lock
+        return Batch.run(expressions, pool, () -> {
+            DerivativeCache cache = new DerivativeCache(DerivativeCache.DEFAULT_CAPACITY);
+            return expression -> cache.differentiate(Expression.parse(expression), variable).toString();
+        });
+    }
+    
+    /**
+     * Simplify a batch of expressions in one environment, in parallel in the
+     * common ForkJoinPool.
+     * @param expressions the expressions to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @return one result per expression, in the same order: the output of
+     *         simplify(expression, environment), or the message of the
+     *         IllegalArgumentException it threw
+     */
+    public static List<CommandResult> simplifyAll(List<String> expressions,
+            Map<String,Double> environment) {
+        return simplifyAll(expressions, environment, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Simplify a batch of expressions in one environment, in parallel.
+     * @param expressions the expressions to simplify
+     * @param environment maps variables to values, as for simplify(String, Map)
+     * @param pool pool whose workers simplify the expressions
+     * @return one result per expression, in the same order: the output of
+     *         simplify(expression, environment), or the message of the
+     *         IllegalArgumentException it threw
+     */
+    public static List<CommandResult> simplifyAll(List<String> expressions,
+            Map<String,Double> environment, ForkJoinPool pool) {
+        assert expressions != null && pool != null;
+        assert environment != null;
+        
+        // converted once, then copied for each slice of the batch
+        Environment slots = Environment.of(environment);
+        return Batch.run(expressions, pool, () -> {
+            Environment copy = slots.copy();
+            return expression -> simplify(expression, copy);
+        });
+    }
+    
+    /**
+     * Evaluate an expression for every row of a table of values.
+     * @param expression the expression to evaluate
+     * @param columns maps variables to columns of values, all of the same length, the number of
+     *         rows.  Every variable in expression must have a column; other columns are ignored.
+     *         Values must be nonnegative numbers.  If columns is empty, there is one row.
+     * @return array with one number per row, the value of the expression after substituting every
+     *         variable v with columns.get(v)[row], computed in double arithmetic
+     * @throws IllegalArgumentException if the expression is invalid, a variable in it has no
+     *         column, or the columns differ in length
+     */
+    public static double[] evaluate(String expression, Map<String,double[]> columns) {
+        assert columns != null;
+        
+        int rows = columns.isEmpty() ? 1 : columns.values().iterator().next().length;
+        for (double[] column : columns.values()) {
+            if (column.length != rows) {
+                throw new IllegalArgumentException("columns differ in length");
+            }
+        }
+        double[] values = new double[rows];
+        evaluate(expression, columns, values);
+        return values;
+    }
+    
+    /**
+     * Evaluate an expression for every row of a table of values, into an existing array.
+     * @param expression the expression to evaluate
+     * @param columns maps variables to columns of values, each at least out.length long.
+     *         Every variable in expression must have a column; other columns are ignored.
+     * @param out receives, at each index row, the value of the expression after substituting
+     *         every variable v with columns.get(v)[row], computed in double arithmetic
+     * @throws IllegalArgumentException if the expression is invalid, a variable in it has no
+     *         column, or a column is shorter than out
+     */
+    public static void evaluate(String expression, Map<String,double[]> columns, double[] out) {
+        assert expression != null && expression != "";
+        assert columns != null && out != null;
+        
+        Expression expr = Expression.parse(expression);
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        StackProgram program = StackProgram.lower(expr, slots, true);
+        double[][] slotColumns = new double[slots.size()][];
+        for (Map.Entry<String, Integer> slot : slots.entrySet()) {
+            double[] column = columns.get(slot.getKey());
+            if (column == null) {
+                throw new IllegalArgumentException("no column for " + slot.getKey());
+            }
+            if (column.length < out.length) {
+                throw new IllegalArgumentException("column " + slot.getKey() + " is too short");
+            }
+            slotColumns[slot.getValue()] = column;
+        }
+        program.evalColumns(slotColumns, out, out.length);
     }
     
 }
@@ -0,0 +1,289 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable expression compiled for fast numeric evaluation.
+ *
+ * Compiling assigns every variable of the expression a slot, an index into
+ * the array of values that eval() takes, and generates a JVM class that
+ * computes the expression from that array in double arithmetic, as a
+ * hand-written method would. Evaluating the same expression many times with
+ * different values is then much cheaper than substitute(), which builds a new
+ * expression each time. Expressions too large for the generated class are
+ * evaluated by an interpreter over the same instructions instead.
+ *
+ * Numbers are not truncated to 5 decimal places while evaluating, so results
+ * may differ from substitute() in digits that Value doesn't print.
+ *
+ * evalColumns() evaluates a whole table of rows, given one column of values
+ * per variable, walking the instructions once per block of rows rather than
+ * once per row. gradient() computes the value together with every partial
+ * derivative by reverse-mode automatic differentiation: one sweep forward
+ * over the instructions and one back, however many variables there are.
+ * A DualEvaluator computes one directional derivative at a time, with the
+ * value, in a single forward sweep.
+ */
+public final class CompiledExpression {
+    private final Expression expression;
+    private final List<String> variables;
+    private final Map<String, Integer> slots;
+    private final StackProgram program;
+    private final Evaluator evaluator;
+    private final Environment blank;
+
+    // Abstraction Function
+    //   represents expression, with variables.get(i) read from slot i,
+    //   evaluated by evaluator, or by program over columns
+    //   blank is an environment of variables, all unbound, whose copies
+    //   eval(Environment) reads in place
+    //
+    // Representation Invariant
+    //   - slots maps each of variables to its index in variables
+    //   - every variable of expression is in variables
+    //
+    // Safety From Exposure
+    //   - all fields are private and final
+    //   - variables and slots are unmodifiable; expression, program and
+    //     evaluator are immutable
+    //   - blank is never bound, and only copies of it are returned
+
+    private CompiledExpression(Expression expression, Map<String, Integer> slots,
+            StackProgram program, Evaluator evaluator) {
+        this.expression = expression;
+        this.slots = Collections.unmodifiableMap(slots);
+        this.variables = Collections.unmodifiableList(new ArrayList<>(slots.keySet()));
+        this.program = program;
+        this.evaluator = evaluator;
+        this.blank = Environment.of(variables);
+        checkRep();
+    }
+    private void checkRep() {
+        assert expression != null && program != null && evaluator != null;
+        assert blank.variables().equals(variables) && blank.isComplete() == variables.isEmpty();
+        for (int i = 0; i < variables.size(); i++) {
+            assert slots.get(variables.get(i)) == i;
+        }
+    }
+    /**
+     * @param expression expression to compile
+     * @return expression compiled, its variables in slots in the order they
+     *         first appear in expression, read left to right
+     */
+    public static CompiledExpression compile(Expression expression) {
+        return compile(expression, new LinkedHashMap<>(), true);
+    }
+    /**
+     * @param expression expression to compile
+     * @param variables distinct variables, including every variable of
+     *        expression; variables.get(i) is read from slot i
+     * @return expression compiled with the given slots
+     * @throws IllegalArgumentException if expression has a variable not in
+     *         variables
+     */
+    public static CompiledExpression compile(Expression expression, List<String> variables) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (String variable : variables) {
+            if (slots.put(variable, slots.size()) != null) {
+                throw new IllegalArgumentException("repeated variable " + variable);
+            }
+        }
+        return compile(expression, slots, false);
+    }
+    private static CompiledExpression compile(Expression expression,
+            Map<String, Integer> slots, boolean grow) {
+        // a long sum is lowered term by term, so it can be split into chunks
+        List<StackProgram> terms = new ArrayList<>();
+        if (expression instanceof Addition) {
+            Addition sum = (Addition) expression;
+            for (int i = 0; i < sum.termCount(); i++) {
+                terms.add(StackProgram.lower(sum.term(i), slots, grow));
+            }
+        } else {
+            terms.add(StackProgram.lower(expression, slots, grow));
+        }
+        StackProgram program = StackProgram.lower(expression, slots, false);
+        Evaluator evaluator = generate(expression, slots, terms);
+        return new CompiledExpression(expression, slots, program,
+                (evaluator == null) ? program : evaluator);
+    }
+    /** @return a generated evaluator of the sum of terms, or null if it doesn't fit in a class */
+    private static Evaluator generate(Expression expression, Map<String, Integer> slots,
+            List<StackProgram> terms) {
+        List<StackProgram> chunks = new ArrayList<>();
+        if (terms.size() == 1) {
+            chunks.add(terms.get(0));
+        } else {
+            int chunkBytes = 0;
+            int chunkStart = 0;
+            for (int i = 0; i <= terms.size(); i++) {
+                int termBytes = (i == terms.size()) ? 0 : BytecodeGenerator.codeLength(terms.get(i));
+                if (termBytes < 0) {
+                    return null;
+                }
+                // each term but the first of a chunk also needs a dadd
+                if (i == terms.size() || chunkBytes + termBytes + 1 > BytecodeGenerator.MAX_METHOD_BYTES) {
+                    if (i == chunkStart) {
+                        return null; // a single term too long for a method
+                    }
+                    chunks.add(sumOf(expression, chunkStart, i, slots));
+                    chunkStart = i;
+                    chunkBytes = 0;
+                }
+                chunkBytes += termBytes + 1;
+            }
+        }
+        for (StackProgram chunk : chunks) {
+            int length = BytecodeGenerator.codeLength(chunk);
+            if (length < 0 || length > BytecodeGenerator.MAX_METHOD_BYTES) {
+                return null;
+            }
+        }
+        return BytecodeGenerator.generate(chunks);
+    }
+    /** @return the program for terms [start, end) of expression, which is a sum if end - start > 1 */
+    private static StackProgram sumOf(Expression expression, int start, int end,
+            Map<String, Integer> slots) {
+        if (!(expression instanceof Addition)) {
+            return StackProgram.lower(expression, slots, false);
+        }
+        Addition sum = (Addition) expression;
+        Expression chunk = sum.term(start);
+        for (int i = start + 1; i < end; i++) {
+            chunk = new Addition(chunk, sum.term(i));
+        }
+        return StackProgram.lower(chunk, slots, false);
+    }
+    /** @return the expression that was compiled */
+    public Expression expression() {
+        return expression;
+    }
+    /** @return the variables of this, variables().get(i) being read from slot i */
+    public List<String> variables() {
+        return variables;
+    }
+    /**
+     * @param variable a variable
+     * @return the slot of variable, or -1 if this doesn't read it
+     */
+    public int slotOf(String variable) {
+        Integer slot = slots.get(variable);
+        return (slot == null) ? -1 : slot;
+    }
+    /**
+     * @param values values.length >= variables().size(), values[i] being
+     *        the value of variables().get(i)
+     * @return the value of the expression for those values
+     */
+    public double eval(double[] values) {
+        assert values.length >= variables.size();
+        return evaluator.eval(values);
+    }
+    /**
+     * @param environment maps every variable of this to its value
+     * @return the value of the expression for those values
+     * @throws IllegalArgumentException if a variable of this has no value
+     */
+    public double eval(Map<String, Double> environment) {
+        return eval(Environment.of(environment));
+    }
+    /**
+     * @return a new environment with a slot for each variable of this, all
+     *         unbound; eval() reads environments made this way, or copied
+     *         from them, without looking their variables up
+     */
+    public Environment newEnvironment() {
+        return blank.copy();
+    }
+    /**
+     * @param environment binds every variable of this
+     * @return the value of the expression for those values
+     * @throws IllegalArgumentException if a variable of this is unbound
+     */
+    public double eval(Environment environment) {
+        return evaluator.eval(valuesOf(environment));
+    }
+    /**
+     * @return the values of the variables of this in environment, in slot
+     *         order; the values of environment itself if it shares slots with blank
+     * @throws IllegalArgumentException if a variable of this is unbound
+     */
+    private double[] valuesOf(Environment environment) {
+        if (environment.sameSlots(blank)) {
+            if (!environment.isComplete()) {
+                throw new IllegalArgumentException("unbound variables in " + environment);
+            }
+            return environment.values();
+        }
+        double[] values = new double[variables.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = environment.valueOf(variables.get(i));
+            if (Double.isNaN(values[i])) {
+                throw new IllegalArgumentException("no value for " + variables.get(i));
+            }
+        }
+        return values;
+    }
+    /**
+     * Computes the value of the expression and its gradient in one forward
+     * and one backward sweep, at a cost independent of the number of
+     * variables, rather than differentiating once per variable
+     * @param values values.length >= variables().size(), values[i] being
+     *        the value of variables().get(i)
+     * @param gradient gradient.length >= variables().size(); receives at
+     *        index i the partial derivative of the expression with respect
+     *        to variables().get(i)
+     * @return the value of the expression for those values
+     */
+    public double gradient(double[] values, double[] gradient) {
+        assert values.length >= variables.size();
+        assert gradient.length >= variables.size();
+        Arrays.fill(gradient, 0, variables.size(), 0);
+        return program.gradient(values, gradient);
+    }
+    /**
+     * Computes the value of the expression and its gradient, as
+     * gradient(double[], double[]) does
+     * @param environment binds every variable of this
+     * @param gradient gradient.length >= variables().size(); receives at
+     *        index i the partial derivative with respect to variables().get(i)
+     * @return the value of the expression for those values
+     * @throws IllegalArgumentException if a variable of this is unbound
+     */
+    public double gradient(Environment environment, double[] gradient) {
+        return gradient(valuesOf(environment), gradient);
+    }
+    /**
+     * @return a new evaluator of the value and one directional derivative
+     *         of the expression at a time, over dual numbers
+     */
+    public DualEvaluator newDualEvaluator() {
+        return new DualEvaluator(program, variables.size());
+    }
+    /**
+     * Evaluates the expression for every row of a table
+     * @param columns columns[i][row] is the value of variables().get(i) in
+     *        that row; columns.length >= variables().size(), and every
+     *        column has at least out.length values
+     * @param out receives the value of the expression for each row
+     */
+    public void evalColumns(double[][] columns, double[] out) {
+        assert columns.length >= variables.size();
+        for (int i = 0; i < variables.size(); i++) {
+            assert columns[i].length >= out.length;
+        }
+        program.evalColumns(columns, out, out.length);
+    }
+    /** @return whether this runs as a generated class rather than interpreted */
+    boolean isGenerated() {
+        return !(evaluator instanceof StackProgram);
+    }
+    @Override public String toString() {
+        return "compiled " + expression + " with slots " + variables;
+    }
+}
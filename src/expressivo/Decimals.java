@@ -0,0 +1,147 @@
+package expressivo;
+
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Formats nonnegative numbers the way Value prints them: truncated, not
+ * rounded, to at most 5 decimal places, without trailing zeros or grouping,
+ * as DecimalFormat("###.#####") with RoundingMode.DOWN does.
+ *
+ * Numbers below FAST_LIMIT are truncated with a few double operations and
+ * written digit by digit, without allocating. Larger numbers, which have
+ * less than 5 decimal places of precision anyway, fall back to a per-thread
+ * DecimalFormat. The decimal separator is always '.', the one the parser reads.
+ */
+final class Decimals {
+    /** Numbers below this have ulp < 10^-5 and a scaled value < 2^53 */
+    static final double FAST_LIMIT = 1e9;
+    /** 10^5, the scale of a number truncated to 5 decimal places */
+    static final long SCALE = 100_000L;
+    private static final double SCALE_DOUBLE = SCALE;
+
+    private static final ThreadLocal<DecimalFormat> SLOW_FORMAT =
+            ThreadLocal.withInitial(() -> {
+                DecimalFormat format = new DecimalFormat("###.#####",
+                        DecimalFormatSymbols.getInstance(Locale.ROOT));
+                format.setRoundingMode(RoundingMode.DOWN);
+                return format;
+            });
+
+    private Decimals() {
+        // not instantiable
+    }
+    /**
+     * Truncates a number to 5 decimal places
+     *
+     * The digits truncated are those of the shortest decimal that converts
+     * back to num, as printed by Double.toString. For example 4.35, stored as
+     * 4.349999..., truncates to 435000 rather than 434999.
+     *
+     * @param num 0 <= num < FAST_LIMIT
+     * @return floor(num * 10^5) for the shortest decimal representation of num
+     */
+    static long truncateScaled(double num) {
+        assert 0 <= num && num < FAST_LIMIT;
+        // since ulp(num) < 10^-5, at most one multiple of 10^-5 converts to
+        // num, and dividing a long below 2^53 by 10^5 rounds exactly
+        // like parsing the decimal would
+        final long estimate = (long) Math.floor(num * SCALE_DOUBLE);
+        for (long m = estimate + 1; m >= estimate - 1; m--) {
+            final double grid = m / SCALE_DOUBLE;
+            if (grid == num) {
+                // the shortest representation has at most 5 decimals
+                return m;
+            }
+            if (grid < num) {
+                // every decimal converting to num lies strictly between
+                // m and m + 1 scaled, so they all truncate to m
+                return m;
+            }
+        }
+        return estimate - 1;
+    }
+    /**
+     * @param num 0 <= num <= Double.MAX_VALUE
+     * @return the value of num truncated to 5 decimal places, as a double,
+     *         equal to Double.parseDouble(format(num))
+     */
+    static double truncate(double num) {
+        if (num < FAST_LIMIT) {
+            return truncateScaled(num) / SCALE_DOUBLE;
+        }
+        if (!Double.isFinite(num)) {
+            return num; // rejected by Value.checkRep() when assertions are on
+        }
+        return Double.parseDouble(SLOW_FORMAT.get().format(num));
+    }
+    /**
+     * @param num 0 <= num <= Double.MAX_VALUE
+     * @return num truncated to 5 decimal places, e.g. "0.5", "2", "1.33333"
+     */
+    static String format(double num) {
+        if (num < FAST_LIMIT) {
+            StringBuilder out = new StringBuilder(16);
+            try {
+                appendScaled(num, truncateScaled(num), out);
+            } catch (IOException ioe) {
+                throw new AssertionError("StringBuilder doesn't throw IOException", ioe);
+            }
+            return out.toString();
+        }
+        return SLOW_FORMAT.get().format(num);
+    }
+    /**
+     * Writes format(num) to an output
+     * @param num 0 <= num <= Double.MAX_VALUE
+     * @param out destination of the characters
+     * @throws IOException if out throws IOException
+     */
+    static void appendTo(double num, Appendable out) throws IOException {
+        if (num < FAST_LIMIT) {
+            appendScaled(num, truncateScaled(num), out);
+        } else {
+            out.append(SLOW_FORMAT.get().format(num));
+        }
+    }
+    /**
+     * Writes a number truncated to 5 decimal places
+     * @param num the number that was truncated; only its sign is used
+     * @param scaled the truncated number times 10^5, >= 0
+     * @param out destination of the characters
+     */
+    static void appendScaled(double num, long scaled, Appendable out) throws IOException {
+        assert scaled >= 0;
+        if (Double.doubleToRawLongBits(num) == Long.MIN_VALUE) {
+            out.append('-'); // DecimalFormat keeps the sign of -0.0
+        }
+        appendDigits(scaled / SCALE, out);
+
+        long fraction = scaled % SCALE;
+        if (fraction == 0) {
+            return;
+        }
+        out.append('.');
+        long divisor = SCALE / 10;
+        while (fraction != 0) {
+            final long digit = fraction / divisor;
+            out.append((char) ('0' + digit));
+            fraction -= digit * divisor;
+            divisor /= 10;
+        }
+    }
+    /** Writes the decimal digits of n >= 0, most significant first */
+    private static void appendDigits(long n, Appendable out) throws IOException {
+        long divisor = 1;
+        while (n / divisor >= 10) {
+            divisor *= 10;
+        }
+        while (divisor > 0) {
+            out.append((char) ('0' + (n / divisor) % 10));
+            divisor /= 10;
+        }
+    }
+}
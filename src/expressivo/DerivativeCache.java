@@ -0,0 +1,190 @@
+package expressivo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe, size-bounded cache of derivatives, keyed by expression
+ * and variable.
+ *
+ * differentiate() gives the same result as Expression.differentiate, but
+ * looks every sum and product it meets up in the cache first, and
+ * remembers the derivatives it computes. Identical subtrees, whether one
+ * object reached twice or equal expressions in different places, are
+ * differentiated once, and their derivative is one shared object, so the
+ * result is a DAG rather than a tree with repeated copies. Differentiating
+ * a derivative again reuses the derivatives of the subtrees it still shares
+ * with the expression it came from. Subtrees whose Metadata shows they
+ * don't contain the variable are not looked up at all. Subtrees are only
+ * matched if they are identical, down to the exact doubles of their Values,
+ * so the cache never answers for a subtree whose numbers merely print the
+ * same.
+ *
+ * There is no cache shared by the whole program: Commands.differentiate
+ * uses a new cache for each call, differentiateAll one for each slice of
+ * its batch, and a Session one for its current expression, so no lock is
+ * taken by more than one thread at a time, and nothing is kept once the
+ * caller is done. Entries are dropped least recently used first.
+ */
+public class DerivativeCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final LinkedHashMap<Key, Expression> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // Abstraction Function
+    //   represents the derivative entries.get(k) of each key k's expression
+    //   with respect to its variable. hits, misses and evictions count
+    //   lookups found in, lookups absent from, and entries dropped from the
+    //   cache since it was created or last cleared
+    //
+    // Representation Invariant
+    //   - capacity >= 0
+    //   - entries.size() <= capacity
+    //   - keys are sums or products that may contain their variable,
+    //     never Value or Variable
+    //   - keys are equal only if their expressions are identical, as
+    //     defined by Traversal.identical
+    //   - hits, misses, evictions >= 0
+    //
+    // Safety From Exposure
+    //   - all fields are private; entries is never returned
+    //   - cached expressions are immutable and may be shared
+    //
+    // Thread Safety Argument
+    //   - entries and the counters are only accessed while holding the
+    //     lock of this; differentiating happens outside the lock, so two
+    //     threads may differentiate the same subtree at once, and the
+    //     later result wins
+
+    private void checkRep() {
+        assert capacity >= 0;
+        assert entries.size() <= capacity;
+        assert hits >= 0 && misses >= 0 && evictions >= 0;
+    }
+    /**
+     * Creates an empty cache
+     * @param capacity maximum number of derivatives remembered, >= 0
+     */
+    public DerivativeCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, Expression>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1;
+            @Override protected boolean removeEldestEntry(Map.Entry<Key, Expression> eldest) {
+                if (size() > DerivativeCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        checkRep();
+    }
+    /**
+     * Differentiate an expression, reusing earlier derivatives of its subtrees
+     * @param expr expression to differentiate
+     * @param variable non-null non-empty case-sensitive string of letters, a-zA-Z
+     * @return an expression equal to expr.differentiate(variable), possibly
+     *         sharing subtrees with earlier results
+     */
+    public Expression differentiate(Expression expr, String variable) {
+        assert variable != null && variable != "";
+        return Traversal.fold(expr, new Traversal.Differentiation(variable) {
+            @Override public Expression shortcut(Expression node) {
+                final Expression pruned = super.shortcut(node);
+                return (pruned != null) ? pruned : lookup(new Key(node, variable));
+            }
+            @Override public Expression finish(Expression node, Expression derivative) {
+                remember(new Key(node, variable), derivative);
+                return derivative;
+            }
+        });
+    }
+    /** @return the derivative remembered for key, or null if there is none */
+    private synchronized Expression lookup(Key key) {
+        final Expression derivative = entries.get(key);
+        if (derivative != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return derivative;
+    }
+    private void remember(Key key, Expression derivative) {
+        if (capacity > 0) {
+            synchronized (this) {
+                entries.put(key, derivative);
+                checkRep();
+            }
+        }
+    }
+    /** Removes every entry and resets the counters */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        checkRep();
+    }
+    /** @return maximum number of derivatives this cache remembers */
+    public int capacity() {
+        return capacity;
+    }
+    /** @return number of derivatives currently remembered */
+    public synchronized int size() {
+        return entries.size();
+    }
+    /** @return number of sums and products whose derivative was found in the cache */
+    public synchronized long hits() {
+        return hits;
+    }
+    /** @return number of sums and products that were differentiated */
+    public synchronized long misses() {
+        return misses;
+    }
+    /** @return number of entries dropped to stay within capacity */
+    public synchronized long evictions() {
+        return evictions;
+    }
+    /** @return hits() / (hits() + misses()), or 0 before any lookup */
+    public synchronized double hitRate() {
+        return (hits + misses == 0) ? 0 : (double) hits / (hits + misses);
+    }
+    @Override public synchronized String toString() {
+        return "DerivativeCache[" + entries.size() + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions
+                + String.format(", hit rate=%.1f%%", 100 * hitRate()) + "]";
+    }
+
+    /**
+     * A sum or product and a variable to differentiate it by; keys are
+     * equal when their expressions are identical, not merely equal
+     */
+    private static class Key {
+        private final Expression expr;
+        private final String variable;
+
+        private Key(Expression expr, String variable) {
+            this.expr = expr;
+            this.variable = variable;
+        }
+        @Override public boolean equals(Object thatObject) {
+            if (!(thatObject instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) thatObject;
+            return this.variable.equals(that.variable) && Traversal.identical(this.expr, that.expr);
+        }
+        @Override public int hashCode() {
+            // identical expressions are equal, and have the same constants
+            return (expr.hashCode() * 31 + Metadata.constants(expr)) * 31 + variable.hashCode();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package expressivo;
+
+/**
+ * A mutable evaluator of a compiled expression over dual numbers, giving
+ * its value and its derivative along one direction at each point.
+ *
+ * Every variable is evaluated as a dual number value + tangent * e, where
+ * e * e = 0 and the tangent is the variable's component of the direction;
+ * the tangent of the result is then the directional derivative. No
+ * symbolic derivative is built, and after construction no evaluation
+ * allocates: the stacks are kept between points.
+ *
+ * Evaluators are not thread-safe; give each thread its own, from
+ * CompiledExpression.newDualEvaluator().
+ */
+public final class DualEvaluator {
+    private final StackProgram program;
+    private final double[] unit;
+    private final double[] values;
+    private final double[] tangents;
+    private double derivative = Double.NaN;
+
+    // Abstraction Function
+    //   represents an evaluator of program over unit.length variables,
+    //   whose last evaluation had derivative derivative, or none if NaN
+    //
+    // Representation Invariant
+    //   - values.length == tangents.length == program.maxDepth()
+    //   - unit is all 0 between evaluations
+    //
+    // Safety From Exposure
+    //   - all fields are private; program is immutable, the arrays are
+    //     made here and never returned
+
+    DualEvaluator(StackProgram program, int variables) {
+        this.program = program;
+        this.unit = new double[variables];
+        this.values = new double[program.maxDepth()];
+        this.tangents = new double[program.maxDepth()];
+        checkRep();
+    }
+    private void checkRep() {
+        assert values.length == program.maxDepth() && tangents.length == values.length;
+    }
+    /**
+     * Evaluates the expression and its derivative along direction at a point
+     * @param point point[i] is the value of variable i of the compiled
+     *        expression; point.length >= number of variables
+     * @param direction direction[i] is the component along variable i;
+     *        direction.length >= number of variables
+     * @return the value of the expression at point; derivative() is then
+     *         its derivative along direction there
+     */
+    public double eval(double[] point, double[] direction) {
+        assert point.length >= unit.length && direction.length >= unit.length;
+        final double value = program.dual(point, direction, values, tangents);
+        derivative = tangents[0];
+        return value;
+    }
+    /**
+     * Evaluates the expression and its partial derivative with respect to
+     * one variable at a point
+     * @param point point[i] is the value of variable i of the compiled
+     *        expression; point.length >= number of variables
+     * @param variable 0 <= variable < number of variables, the slot of the
+     *        variable to differentiate by
+     * @return the value of the expression at point; derivative() is then
+     *         its partial derivative there
+     */
+    public double eval(double[] point, int variable) {
+        unit[variable] = 1;
+        try {
+            return eval(point, unit);
+        } finally {
+            unit[variable] = 0;
+        }
+    }
+    /** @return the derivative found by the last evaluation, NaN before the first */
+    public double derivative() {
+        return derivative;
+    }
+    /**
+     * Evaluates the expression and its derivative along one direction at a
+     * batch of points
+     * @param columns columns[i][row] is the value of variable i at point
+     *        row; every column has at least out.length values
+     * @param direction direction[i] is the component along variable i
+     * @param out receives the value of the expression at each point
+     * @param derivatives receives the derivative along direction at each
+     *        point, derivatives.length >= out.length
+     */
+    public void evalColumns(double[][] columns, double[] direction,
+            double[] out, double[] derivatives) {
+        assert columns.length >= unit.length && derivatives.length >= out.length;
+        final double[] point = new double[unit.length];
+        for (int row = 0; row < out.length; row++) {
+            for (int i = 0; i < point.length; i++) {
+                point[i] = columns[i][row];
+            }
+            out[row] = eval(point, direction);
+            derivatives[row] = derivative;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A mutable binding of variables to nonnegative numbers, with every variable
+ * resolved once to an integer slot and the values held in a double[].
+ *
+ * An environment is made for a fixed set of variables, usually those of one
+ * expression, and can then be rebound as often as needed without boxing or
+ * allocating. Environments copied from one another share their slots.
+ * Looking a variable up compares its name by reference first, so the
+ * variables of the expression an environment was made from are found
+ * without comparing characters.
+ *
+ * Environments are not thread-safe; give each thread its own copy().
+ */
+public final class Environment {
+    private final Slots slots;
+    private final double[] values;
+    private int unbound;
+    private long boundVariables;
+    private boolean boundVariablesStale;
+
+    // Abstraction Function
+    //   represents the bindings slots.name(i) -> values[i] for every slot i
+    //   with values[i] not NaN; slots with NaN values are unbound
+    //
+    // Representation Invariant
+    //   - values.length == slots.size()
+    //   - every value is NaN, or finite and >= 0
+    //   - unbound is the number of NaN values
+    //   - unless boundVariablesStale, boundVariables is the Metadata
+    //     variables mask of the bound slots
+    //
+    // Safety From Exposure
+    //   - all fields are private; slots is immutable and may be shared
+    //   - values is only handed out, unchanged, to evaluators in this
+    //     package, which read it
+
+    private Environment(Slots slots) {
+        this.slots = slots;
+        this.values = new double[slots.size()];
+        Arrays.fill(values, Double.NaN);
+        this.unbound = values.length;
+        checkRep();
+    }
+    private void checkRep() {
+        assert values.length == slots.size();
+        int nan = 0;
+        for (double value : values) {
+            assert Double.isNaN(value) || (Double.isFinite(value) && value >= 0);
+            nan += Double.isNaN(value) ? 1 : 0;
+        }
+        assert nan == unbound;
+    }
+    /**
+     * @param expr any expression
+     * @return an environment with one unbound slot for each variable of expr,
+     *         in the order the variables first appear, read left to right
+     */
+    public static Environment of(Expression expr) {
+        Set<String> variables = new LinkedHashSet<>();
+        Traversal.fold(expr, new Traversal.Fold<Boolean>() {
+            @Override public Boolean leaf(Expression leaf) {
+                if (leaf instanceof Variable) {
+                    variables.add(leaf.toString());
+                }
+                return true;
+            }
+            @Override public Boolean combine(Expression node, int i, Boolean soFar, Boolean operand) {
+                return true;
+            }
+        });
+        return new Environment(new Slots(new ArrayList<>(variables)));
+    }
+    /**
+     * @param variables distinct nonempty case-sensitive strings of letters
+     * @return an environment with one unbound slot for each variable,
+     *         variables.get(i) in slot i
+     * @throws IllegalArgumentException if a variable is repeated
+     */
+    public static Environment of(List<String> variables) {
+        if (new LinkedHashSet<>(variables).size() != variables.size()) {
+            throw new IllegalArgumentException("repeated variable in " + variables);
+        }
+        return new Environment(new Slots(new ArrayList<>(variables)));
+    }
+    /**
+     * Adapts the bindings of a map
+     * @param bindings maps variables to values, finite and >= 0
+     * @return an environment with the same bindings
+     */
+    public static Environment of(Map<String, Double> bindings) {
+        Environment environment = new Environment(
+                new Slots(new ArrayList<>(bindings.keySet())));
+        for (int slot = 0; slot < environment.values.length; slot++) {
+            environment.set(slot, bindings.get(environment.slots.name(slot)));
+        }
+        return environment;
+    }
+    /** @return a new environment with the same slots and bindings as this */
+    public Environment copy() {
+        Environment copy = new Environment(slots);
+        System.arraycopy(values, 0, copy.values, 0, values.length);
+        copy.unbound = unbound;
+        copy.boundVariables = boundVariables;
+        copy.boundVariablesStale = boundVariablesStale;
+        return copy;
+    }
+    /** @return the variables of this, variables().get(i) being in slot i */
+    public List<String> variables() {
+        return slots.names();
+    }
+    /** @return number of slots */
+    public int size() {
+        return values.length;
+    }
+    /**
+     * @param variable a variable
+     * @return the slot of variable, or -1 if this has none for it
+     */
+    public int slotOf(String variable) {
+        return slots.slotOf(variable);
+    }
+    /**
+     * Binds the variable in a slot
+     * @param slot 0 <= slot < size()
+     * @param value finite and >= 0
+     */
+    public void set(int slot, double value) {
+        if (!(Double.isFinite(value) && value >= 0)) {
+            throw new IllegalArgumentException("value must be a nonnegative number: " + value);
+        }
+        if (Double.isNaN(values[slot])) {
+            unbound--;
+        }
+        values[slot] = value;
+        boundVariables |= slots.bit(slot);
+    }
+    /**
+     * Binds a variable
+     * @param variable a variable with a slot in this
+     * @param value finite and >= 0
+     * @throws IllegalArgumentException if variable has no slot
+     */
+    public void set(String variable, double value) {
+        int slot = slotOf(variable);
+        if (slot < 0) {
+            throw new IllegalArgumentException("no slot for " + variable);
+        }
+        set(slot, value);
+    }
+    /** Unbinds the variable in slot, 0 <= slot < size() */
+    public void unset(int slot) {
+        if (!Double.isNaN(values[slot])) {
+            unbound++;
+            // other bound variables may share the bit of this one
+            boundVariablesStale = true;
+        }
+        values[slot] = Double.NaN;
+    }
+    /** @return whether the variable in slot is bound, 0 <= slot < size() */
+    public boolean isBound(int slot) {
+        return !Double.isNaN(values[slot]);
+    }
+    /** @return the value of the variable in slot, NaN if it is unbound */
+    public double get(int slot) {
+        return values[slot];
+    }
+    /** @return whether every slot is bound */
+    public boolean isComplete() {
+        return unbound == 0;
+    }
+    /** @return true if this and that share their slots, as copies of one another do */
+    boolean sameSlots(Environment that) {
+        return this.slots == that.slots;
+    }
+    /** @return the values of the slots, NaN for unbound ones; not to be modified */
+    double[] values() {
+        return values;
+    }
+    /**
+     * @return the Metadata variables mask of the bound variables; a clear
+     *         bit means no bound variable has it
+     */
+    long boundVariables() {
+        if (boundVariablesStale) {
+            boundVariables = 0;
+            for (int slot = 0; slot < values.length; slot++) {
+                if (isBound(slot)) {
+                    boundVariables |= slots.bit(slot);
+                }
+            }
+            boundVariablesStale = false;
+        }
+        return boundVariables;
+    }
+    /**
+     * @param variable a variable
+     * @return value bound to variable, or NaN if it has no slot or is unbound
+     */
+    double valueOf(String variable) {
+        int slot = slots.slotOf(variable);
+        return (slot < 0) ? Double.NaN : values[slot];
+    }
+    @Override public String toString() {
+        StringBuilder out = new StringBuilder("{");
+        for (int slot = 0; slot < values.length; slot++) {
+            if (slot > 0) {
+                out.append(", ");
+            }
+            out.append(slots.name(slot)).append('=');
+            out.append(isBound(slot) ? Decimals.format(values[slot]) : "unbound");
+        }
+        return out.append('}').toString();
+    }
+
+    /** The immutable assignment of variables to slots, an open-addressing table */
+    private static final class Slots {
+        private final List<String> names;
+        private final String[] nameArray;
+        private final long[] bits;
+        private final int[] table;
+        private final int mask;
+
+        // Abstraction Function
+        //   represents the assignment of names.get(i) to slot i
+        //
+        // Representation Invariant
+        //   - names are distinct, nameArray holds them in the same order
+        //   - bits[i] is the Metadata bit of nameArray[i]
+        //   - table.length is a power of two >= 2 * names.size(), holding
+        //     -1 or slot numbers; each slot is in table exactly once, at the
+        //     first index >= hash(name) & mask, wrapping, that was free
+        //
+        // Safety From Exposure
+        //   - names is unmodifiable, the arrays are never returned
+
+        private Slots(List<String> names) {
+            this.names = Collections.unmodifiableList(names);
+            this.nameArray = names.toArray(new String[0]);
+            this.bits = new long[nameArray.length];
+            for (int slot = 0; slot < nameArray.length; slot++) {
+                bits[slot] = Metadata.bit(nameArray[slot]);
+            }
+            int capacity = Integer.highestOneBit(Math.max(2, 2 * nameArray.length - 1)) << 1;
+            this.table = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(table, -1);
+            for (int slot = 0; slot < nameArray.length; slot++) {
+                int index = nameArray[slot].hashCode() & mask;
+                while (table[index] >= 0) {
+                    index = (index + 1) & mask;
+                }
+                table[index] = slot;
+            }
+        }
+        private int size() {
+            return nameArray.length;
+        }
+        private String name(int slot) {
+            return nameArray[slot];
+        }
+        private long bit(int slot) {
+            return bits[slot];
+        }
+        private List<String> names() {
+            return names;
+        }
+        private int slotOf(String name) {
+            int index = name.hashCode() & mask;
+            int slot;
+            while ((slot = table[index]) >= 0) {
+                String candidate = nameArray[slot];
+                if (candidate == name || candidate.equals(name)) {
+                    return slot;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
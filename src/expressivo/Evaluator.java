@@ -0,0 +1,16 @@
+package expressivo;
+
+/**
+ * A compiled numeric form of an expression, whose variables have been
+ * assigned to indices of an array of values.
+ *
+ * Implementations are generated at runtime by CompiledExpression, so this
+ * interface must stay public.
+ */
+public interface Evaluator {
+    /**
+     * @param slots the value of each variable, at the index it was assigned
+     * @return the value of the expression, computed in double arithmetic
+     */
+    public double eval(double[] slots);
+}
@@ -3,18 +3,12 @@
  */
 package expressivo;
 
-import expressivo.parser.ExpressionLexer;
-import expressivo.parser.ExpressionMainVisitor;
-import expressivo.parser.ExpressionParser;
+import expressivo.parser.ExpressionAntlrPipeline;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.misc.ParseCancellationException;
-import org.antlr.v4.runtime.tree.ParseTree;
-
 /**
  * An immutable data type representing a polynomial expression of:
  *   + and *
@@ -31,40 +25,75 @@ public interface Expression {
     // Datatype definition:
     //   Expression = Value(num:double)
     //                + Variable(id:String)
-    //                + Addition(left:Expression, right:Expression)
-    //                + Multiplication(left:Expression, right:Expression)
+    //                + Addition(terms:List<Expression>)
+    //                + Multiplication(factors:List<Expression>)
+    //   where a sum has 2+ terms and a product 2+ factors, grouped from
+    //   the left, the first not a sum or product respectively
     /**
      * Parse an expression.
+     * Results are remembered by ParseCache.shared(), so parsing the same
+     * input again may return the same instance.
      * @param input expression to parse, as defined in the PS3 handout.
      * @return expression AST for the input, simplified as much as possible
      * @throws IllegalArgumentException if the expression is invalid
      */
-    // TODO: 'human-readable' error messages
     public static Expression parse(String input) {
         assert input != null && input != "";
-        try {
-            CharStream inputStream = CharStreams.fromString(input);
-            ExpressionLexer lexer = new ExpressionLexer(inputStream);
-            lexer.reportErrorsAsExceptions();
-            
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            ExpressionParser parser = new ExpressionParser(tokens);
-            parser.reportErrorsAsExceptions();
-            
-            parser.setBuildParseTree(true);
-            ParseTree parseTree = parser.root();
-            
-            ExpressionMainVisitor exprVisitor = new ExpressionMainVisitor();
-            Expression expr = exprVisitor.visit(parseTree);
-            
-            return expr;
-        } catch (ParseCancellationException e) {
-            throw new IllegalArgumentException(e.getMessage());
-        }
+        return ParseCache.shared().parse(input);
+    }
+    /**
+     * Parse an expression with the ANTLR-generated parser.
+     * 
+     * This is the reference implementation of parse(): it builds a full
+     * parse tree and converts it with ExpressionMainVisitor, reusing the
+     * calling thread's ExpressionAntlrPipeline. It is slower than parse()
+     * and kept for cross-checking and benchmarking.
+     * 
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input, equal to parse(input)
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    // TODO: 'human-readable' error messages
+    public static Expression parseReference(String input) {
+        assert input != null && input != "";
+        return ExpressionAntlrPipeline.parse(input);
     }
     /** Creates an empty expression such that Expression.parse("0").equals(emptyExpression())  */
     public static Expression emptyExpression() {
-        return new Value(0.0);
+        return Value.ZERO;
+    }
+    /**
+     * Adds a chain of expressions from left to right
+     *
+     * Runs in time linear in the total number of terms, also when addExpr
+     * would replace the last term of a long sum at every step, as in
+     * x + x + x + ...
+     *
+     * @param terms one or more non-null expressions
+     * @return an expression equal to
+     *         terms[0].addExpr(terms[1]).addExpr(terms[2])...addExpr(terms[n-1])
+     */
+    public static Expression sum(List<Expression> terms) {
+        assert !terms.isEmpty();
+        return Addition.sum(terms);
+    }
+    /**
+     * Multiplies a chain of expressions from left to right
+     *
+     * @param factors one or more non-null expressions
+     * @return an expression equal to
+     *         factors[0].multiplyExpr(factors[1])...multiplyExpr(factors[n-1]),
+     *         built in time linear in the total number of factors
+     */
+    public static Expression product(List<Expression> factors) {
+        assert !factors.isEmpty();
+        // products only ever append past their own factors, so folding is
+        // already linear
+        Expression result = factors.get(0);
+        for (int i = 1; i < factors.size(); i++) {
+            result = result.multiplyExpr(factors.get(i));
+        }
+        return result;
     }
     /**
      * Appends an expression at the end of this with an addition
@@ -151,6 +180,8 @@ public interface Expression {
      *  - Any variables in the expression but not the environment 
      *    remain as variables in the substituted polynomial. 
      *  - Any variables in the environment but not the expression are simply ignored.
+     * Subexpressions without any variable of the environment are kept as they
+     * are, as substitute(Environment) describes.
      * If the substituted polynomial is a constant expression, with no variables remaining, 
      * then simplification reduces it to a single number, with no operators remaining.
      * 
@@ -161,7 +192,29 @@ public interface Expression {
      *         the expression and the environment with its value, environment.get(v).  If there are no
      *         variables left in this expression after substitution, it must be evaluated to a single number.
      */
-    public Expression substitute(Map<String,Double> environment);
+    public default Expression substitute(Map<String,Double> environment) {
+        assert environment != null;
+        return substitute(Environment.of(environment));
+    }
+    /**
+     * Substitutes the variables bound in an environment with their numbers
+     * 
+     * Same as substitute(Map), with variables looked up by slot: variables
+     * of this expression that have no slot in the environment, or are
+     * unbound, remain as variables.
+     * 
+     * A sum or product with no bound variable is returned as it is, the
+     * same instance, rather than built again operand by operand. It is
+     * therefore not simplified again either: z + 8 + 8 with no variable
+     * bound stays z + 8 + 8, where rebuilding it with addExpr would give
+     * z + 16.
+     * 
+     * @param environment values of variables, by slot
+     * @return an expression equal to this, after substituting every variable
+     *         v bound in environment with its value.  If there are no
+     *         variables left, it is evaluated to a single number.
+     */
+    public Expression substitute(Environment environment);
     /**
      * Produces an expression with the derivative of this expression 
      * with respect to an input variable
@@ -190,6 +243,16 @@ public interface Expression {
      *         for all e:Expression, e.equals(Expression.parse(e.toString())).
      */
     @Override public String toString();
+    /**
+     * Writes the string representation of this expression to an output,
+     * in one pass and without building the whole string first
+     * 
+     * @param out destination of the characters, e.g. a StringBuilder or
+     *        a Writer; this expression is appended after its current contents
+     * @throws IOException if out throws IOException
+     * @see #toString()
+     */
+    public void appendTo(Appendable out) throws IOException;
     /**
      * Checks if an object is equal to this addition expression
      * Two expressions are equal if and only if: 
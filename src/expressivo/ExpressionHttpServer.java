@@ -0,0 +1,296 @@
+package expressivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An HTTP server for the commands of Commands, on the JDK's
+ * com.sun.net.httpserver.
+ *
+ * Every request is a POST whose body is UTF-8 text:
+ *   /differentiate?var=x         body is an expression; answers its derivative
+ *   /simplify?x=2&y=0.5          body is an expression; answers it simplified
+ *                                with the values in the query
+ *   /differentiate/all?var=x     body is expressions, one per line; answers
+ *   /simplify/all?x=2&y=0.5      one line per expression, its output or
+ *                                "error: " and the message of what went wrong
+ * An expression that can't be parsed is answered with 400 and the message;
+ * a query that doesn't fit the path with 400, a body longer than MAX_REQUEST
+ * bytes with 413. Answers end with a newline. A body that is too long is
+ * still read, up to MAX_DISCARDED bytes, before it is answered, so that the
+ * client has sent it all and reads the 413; a longer one is answered with
+ * Connection: close.
+ *
+ * Connections are kept alive between requests, and requests may be
+ * pipelined: the server reads them in order and answers each before reading
+ * the next. Requests run on a fixed pool of worker threads; the batch
+ * commands run in the common ForkJoinPool. ParseCache.shared() serves all
+ * requests.
+ *
+ * Deployment: the JDK server writes the headers and the body of a response
+ * separately, so with Nagle's algorithm on, the body waits for the client's
+ * delayed ACK of the headers, about 40 ms per request. Run it with
+ * -Dsun.net.httpserver.nodelay=true, which the JDK reads once, when the
+ * first HttpServer of the process is created. main() sets it unless the
+ * command line chose otherwise; constructing a server doesn't touch it.
+ */
+public class ExpressionHttpServer implements Closeable {
+    /** Maximum number of bytes of the body of a request */
+    public static final int MAX_REQUEST = 1 << 20;
+    /** Maximum number of bytes read and dropped from a body longer than MAX_REQUEST */
+    public static final int MAX_DISCARDED = 8 * MAX_REQUEST;
+    private static final String VARIABLE_QUERY = "var";
+    private static final Pattern VARIABLE = Pattern.compile("[A-Za-z]+");
+    private static final Pattern LINE_END = Pattern.compile("\r?\n");
+    /** System property that turns Nagle's algorithm off for the JDK's HTTP server */
+    public static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+    // Abstraction Function
+    //   represents a server answering the requests server receives, on the
+    //   threads of workers
+    //
+    // Representation Invariant
+    //   - server runs its exchanges on workers
+    //
+    // Safety From Exposure
+    //   - all fields are private and never returned
+    //
+    // Thread Safety Argument
+    //   - each exchange is handled by one worker, using only its own
+    //     request and the thread-safe shared caches
+    //   - HttpServer and ExecutorService are thread-safe
+
+    /**
+     * Starts a server
+     * @param address address to listen on; port 0 picks a free port
+     * @param workers number of threads running requests, > 0
+     * @throws IOException if the address can't be bound
+     */
+    public ExpressionHttpServer(InetSocketAddress address, int workers) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.server = HttpServer.create(address, 0);
+        final AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "expressivo-http-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(this.workers);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+    /** @return the address the server listens on */
+    public InetSocketAddress address() {
+        return server.getAddress();
+    }
+    /** Stops accepting requests, closes the connections and stops the workers */
+    @Override public void close() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    /** A request that can't be answered, with the status to answer it with */
+    private static final class RequestException extends Exception {
+        private static final long serialVersionUID = 1;
+        private final int status;
+
+        private RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /** Answers one request, on a worker */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            int status;
+            String answer;
+            try {
+                answer = answer(exchange);
+                status = 200;
+            } catch (RequestException re) {
+                answer = re.getMessage();
+                status = re.status;
+            }
+            final byte[] body = (answer + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    /** @return the answer to a request, without its final newline */
+    private static String answer(HttpExchange exchange) throws IOException, RequestException {
+        final String path = exchange.getRequestURI().getPath();
+        final boolean differentiate;
+        final boolean batch;
+        switch (path) {
+        case "/differentiate":      differentiate = true;  batch = false; break;
+        case "/simplify":           differentiate = false; batch = false; break;
+        case "/differentiate/all":  differentiate = true;  batch = true;  break;
+        case "/simplify/all":       differentiate = false; batch = true;  break;
+        default:
+            throw new RequestException(404, "no command at " + path);
+        }
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            throw new RequestException(405, "commands must be POSTed");
+        }
+        final Map<String,String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        final String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+
+        if (differentiate) {
+            final String variable = query.get(VARIABLE_QUERY);
+            if (query.size() != 1 || variable == null || !VARIABLE.matcher(variable).matches()) {
+                throw new RequestException(400, "usage: " + path + "?var=name");
+            }
+            if (batch) {
+                return join(Commands.differentiateAll(expressions(body), variable));
+            }
+            try {
+                return Commands.differentiate(body, variable);
+            } catch (IllegalArgumentException iae) {
+                throw new RequestException(400, iae.getMessage());
+            }
+        } else {
+            final Map<String,Double> environment = new HashMap<>();
+            for (Map.Entry<String,String> assignment : query.entrySet()) {
+                if (!VARIABLE.matcher(assignment.getKey()).matches()) {
+                    throw new RequestException(400, "usage: " + path + "?var1=val1&var2=val2...");
+                }
+                try {
+                    environment.put(assignment.getKey(), Double.valueOf(assignment.getValue()));
+                } catch (NumberFormatException nfe) {
+                    throw new RequestException(400, "not a number: " + assignment.getValue());
+                }
+            }
+            if (batch) {
+                return join(Commands.simplifyAll(expressions(body), environment));
+            }
+            try {
+                return Commands.simplify(body, environment);
+            } catch (IllegalArgumentException iae) {
+                throw new RequestException(400, iae.getMessage());
+            }
+        }
+    }
+    /** @return the names and values of a raw query string, which may be null */
+    private static Map<String,String> parseQuery(String rawQuery) throws RequestException {
+        final Map<String,String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        try {
+            for (String parameter : rawQuery.split("&")) {
+                final int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    throw new RequestException(400, "query parameter without a value: " + parameter);
+                }
+                query.put(URLDecoder.decode(parameter.substring(0, equals), "UTF-8"),
+                          URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new RequestException(400, "malformed query: " + rawQuery);
+        }
+        return query;
+    }
+    /**
+     * Reads the body of a request, keeping at most MAX_REQUEST bytes of it.
+     * @return the body
+     * @throws RequestException if it is longer than MAX_REQUEST bytes; the
+     *         rest of the body has then been dropped, or if it is longer than
+     *         MAX_DISCARDED, the connection is marked to be closed
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException, RequestException {
+        final String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        boolean tooLong;
+        try {
+            tooLong = length != null && Long.parseLong(length.trim()) > MAX_REQUEST;
+        } catch (NumberFormatException nfe) {
+            throw new RequestException(400, "malformed Content-Length: " + length);
+        }
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            long read = 0;
+            for (int count; (count = in.read(buffer)) >= 0; ) {
+                read += count;
+                if (read > MAX_REQUEST) {
+                    tooLong = true;
+                }
+                if (!tooLong) {
+                    body.write(buffer, 0, count);
+                } else if (read > MAX_DISCARDED) {
+                    // answering while the client still sends would reset
+                    // the connection under it; stop reading and close it
+                    exchange.getResponseHeaders().set("Connection", "close");
+                    break;
+                }
+            }
+        }
+        if (tooLong) {
+            throw new RequestException(413, "request longer than " + MAX_REQUEST + " bytes");
+        }
+        return body.toByteArray();
+    }
+    /** @return the lines of a batch body, without their line endings */
+    private static List<String> expressions(String body) {
+        return body.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(LINE_END.split(body));
+    }
+    /** @return results, one per line */
+    private static String join(List<CommandResult> results) {
+        final StringBuilder answer = new StringBuilder();
+        for (CommandResult result : results) {
+            if (answer.length() > 0) {
+                answer.append('\n');
+            }
+            answer.append(result);
+        }
+        return answer.toString();
+    }
+
+    /**
+     * Runs a server until the process is stopped, with NO_DELAY_PROPERTY
+     * set to true unless it was already set
+     * @param args port to listen on, then optionally the number of workers
+     *        (default: the number of processors)
+     * @throws IOException if the port can't be bound
+     */
+    public static void main(String[] args) throws IOException {
+        final int port = Integer.parseInt(args[0]);
+        final int workers = (args.length > 1)
+                ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+        final ExpressionHttpServer server = new ExpressionHttpServer(new InetSocketAddress(port), workers);
+        System.out.println("listening on port " + server.address().getPort());
+    }
+}
@@ -0,0 +1,380 @@
+package expressivo;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A TCP server for the console protocol of Main, with one Session per
+ * connection.
+ *
+ * Clients send lines, each an expression, !d/dvar, !simplify a=1 ... or
+ * !canonicalize, and get one line back for each, the text Session.execute
+ * returns for it, in order. An empty line closes the connection once the answers
+ * before it are sent. Lines are UTF-8, end with '\n' or "\r\n", and may
+ * be at most MAX_LINE bytes long; longer ones are answered with an error
+ * and skipped.
+ *
+ * One selector thread accepts connections and does all socket reads and
+ * writes, without blocking, so idle connections cost no thread. Commands
+ * run on a fixed pool of workers, one command of a connection at a time,
+ * so a connection's answers come in the order of its lines while
+ * different connections are served in parallel. A connection whose client
+ * doesn't read its answers stops being read once MAX_BACKLOG lines are
+ * waiting. ParseCache.shared() serves all connections.
+ */
+public class ExpressionServer implements Closeable {
+    /** Maximum number of bytes of a line, without its line ending */
+    public static final int MAX_LINE = 1 << 20;
+    /** Maximum number of unanswered lines and unsent answers of a connection before it is not read */
+    static final int MAX_BACKLOG = 64;
+    /** Maximum number of lines of one connection a worker runs before letting others go first */
+    private static final int LINES_PER_TURN = 16;
+    /** Stands for a line longer than MAX_LINE among the lines of a connection, compared by identity */
+    private static final String TOO_LONG = new String("line longer than " + MAX_LINE + " bytes");
+
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Thread selectorThread;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1 << 16);
+    private final Queue<Connection> changed = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile boolean closed;
+
+    // Abstraction Function
+    //   represents a server listening on server, whose open connections
+    //   are the attachments of the keys of selector other than server's,
+    //   connections.get() of them, and whose connections in changed have
+    //   new answers to send or are to be closed
+    //
+    // Representation Invariant
+    //   - readBuffer and the selection keys are only used by selectorThread
+    //   - connections.get() >= 0
+    //
+    // Safety From Exposure
+    //   - all fields are private; connections are never returned
+    //
+    // Thread Safety Argument
+    //   - sockets and keys are confined to selectorThread
+    //   - the lines and answers of a connection are guarded by its lock;
+    //     its session is only used by the one worker running its turn,
+    //     which the lock hands from worker to worker
+    //   - changed is a concurrent queue, and selector.wakeup() is
+    //     thread-safe
+
+    /**
+     * Starts a server
+     * @param address address to listen on; port 0 picks a free port
+     * @param workers number of threads running commands, > 0
+     * @throws IOException if the address can't be bound
+     */
+    public ExpressionServer(InetSocketAddress address, int workers) throws IOException {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        }
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        try {
+            server.bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException ioe) {
+            server.close();
+            selector.close();
+            throw ioe;
+        }
+        final AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "expressivo-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selectorThread = new Thread(this::serve, "expressivo-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+    /** @return the address the server listens on */
+    public InetSocketAddress address() {
+        try {
+            return (InetSocketAddress) server.getLocalAddress();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+    /** @return the number of open connections */
+    public int connections() {
+        return connections.get();
+    }
+    /** Stops accepting connections, closes the open ones and waits for the selector thread */
+    @Override public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+
+    /** Runs the selector loop until the server is closed */
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                for (Connection connection; (connection = changed.poll()) != null; ) {
+                    connection.updateInterest();
+                }
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write();
+                        }
+                    } catch (IOException ioe) {
+                        connection.close();
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // the server can't go on; fall through to closing it
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ioe) {
+                // already closing
+            }
+        }
+    }
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        final Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connections.incrementAndGet();
+    }
+
+    /** One client, with its session and the lines and answers in flight */
+    private final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final Session session = new Session();
+        // the line being read, and whether the socket is open, used by the
+        // selector thread only
+        private byte[] line = new byte[128];
+        private int lineLength = 0;
+        private boolean lineTooLong = false;
+        private boolean open = true;
+        // guarded by this
+        private final ArrayDeque<String> lines = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> answers = new ArrayDeque<>();
+        private boolean running = false;
+        private boolean closing = false;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+        /** Reads what the client sent, and hands complete lines to the workers */
+        private void read() throws IOException {
+            readBuffer.clear();
+            final int count = channel.read(readBuffer);
+            if (count < 0) {
+                close();
+                return;
+            }
+            readBuffer.flip();
+            while (readBuffer.hasRemaining()) {
+                final byte b = readBuffer.get();
+                if (b == '\n') {
+                    endLine();
+                } else if (lineLength < MAX_LINE) {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(MAX_LINE, 2 * lineLength));
+                    }
+                    line[lineLength++] = b;
+                } else {
+                    lineTooLong = true;
+                }
+            }
+            updateInterest();
+        }
+        private void endLine() {
+            final String text;
+            if (lineTooLong) {
+                text = TOO_LONG;
+            } else {
+                final int length = (lineLength > 0 && line[lineLength - 1] == '\r')
+                        ? lineLength - 1 : lineLength;
+                text = new String(line, 0, length, StandardCharsets.UTF_8);
+            }
+            lineLength = 0;
+            lineTooLong = false;
+            synchronized (this) {
+                if (closing) {
+                    return;
+                }
+                lines.add(text);
+                if (!running) {
+                    running = true;
+                    schedule();
+                }
+            }
+        }
+        /** Runs some of the pending lines of this, on a worker */
+        private void runTurn() {
+            for (int turn = 0; turn < LINES_PER_TURN; turn++) {
+                final String text;
+                synchronized (this) {
+                    text = lines.poll();
+                    if (text == null) {
+                        running = false;
+                        return;
+                    }
+                }
+                final String answer;
+                if (text.isEmpty()) {
+                    answer = null;
+                } else if (text == TOO_LONG) {
+                    answer = TOO_LONG;
+                } else {
+                    answer = session.execute(text);
+                }
+                synchronized (this) {
+                    if (answer == null) {
+                        closing = true;
+                        lines.clear();
+                    } else {
+                        answers.add(ByteBuffer.wrap((answer + "\n").getBytes(StandardCharsets.UTF_8)));
+                    }
+                }
+                changed.add(this);
+                selector.wakeup();
+            }
+            // let other connections go first
+            schedule();
+        }
+        /** Queues a turn of this for the workers, unless the server is closing */
+        private void schedule() {
+            try {
+                workers.execute(this::runTurn);
+            } catch (RejectedExecutionException ree) {
+                // closing: the connection is being closed as well
+            }
+        }
+        /** Sends as much of the pending answers as the socket takes */
+        private void write() throws IOException {
+            synchronized (this) {
+                while (!answers.isEmpty()) {
+                    final ByteBuffer answer = answers.peek();
+                    channel.write(answer);
+                    if (answer.hasRemaining()) {
+                        break;
+                    }
+                    answers.poll();
+                }
+            }
+            updateInterest();
+        }
+        /** Sets the operations to wait for from the pending lines and answers, on the selector thread */
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            final int ops;
+            synchronized (this) {
+                if (closing && answers.isEmpty()) {
+                    ops = -1;
+                } else {
+                    final boolean backlogged = lines.size() + answers.size() >= MAX_BACKLOG;
+                    ops = ((closing || backlogged) ? 0 : SelectionKey.OP_READ)
+                            | (answers.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+                }
+            }
+            if (ops < 0) {
+                close();
+            } else {
+                key.interestOps(ops);
+            }
+        }
+        /** Closes the connection, on the selector thread; does nothing if it is closed */
+        private void close() {
+            if (!open) {
+                return;
+            }
+            open = false;
+            synchronized (this) {
+                closing = true;
+                lines.clear();
+                answers.clear();
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                // closing anyway
+            }
+            connections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Runs a server until the process is stopped
+     * @param args port to listen on, then optionally the number of workers
+     *        (default: the number of processors)
+     * @throws IOException if the port can't be bound
+     */
+    public static void main(String[] args) throws IOException {
+        final int port = Integer.parseInt(args[0]);
+        final int workers = (args.length > 1)
+                ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final ExpressionServer server = new ExpressionServer(new InetSocketAddress(port), workers);
+        System.out.println("listening on " + server.address());
+        try {
+            server.selectorThread.join();
+        } catch (InterruptedException ie) {
+            server.close();
+        }
+    }
+}
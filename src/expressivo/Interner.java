@@ -0,0 +1,198 @@
+package expressivo;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A concurrent, weakly-referenced hash-consing table for Expression nodes.
+ *
+ * While interning is enabled, every node the variants create is looked up by
+ * its exact shape, and an existing node of the same shape is returned in its
+ * place, so identical subtrees share one instance and equal trees are usually
+ * the same object. Shapes are exact: numbers by their double bits, variables
+ * by name, and sums and products by the identity of their already-interned
+ * operands. Sums that differ only in grouping are equal, but have different
+ * shapes, so they are kept apart.
+ * Entries are dropped once their node is no longer reachable.
+ *
+ * Interning is off unless the JVM is started with -Dexpressivo.intern=true,
+ * or setEnabled(true) is called. Trees built while it was off, or with the
+ * public constructors, can be canonicalized with intern().
+ */
+public final class Interner {
+    private static final int STRIPES = 32;
+    private static final Stripe[] TABLE = new Stripe[STRIPES];
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            TABLE[i] = new Stripe();
+        }
+        canonical(Value.ZERO);
+        canonical(Value.ONE);
+        canonical(Value.TWO);
+    }
+    private static volatile boolean enabled = Boolean.getBoolean("expressivo.intern");
+
+    // Thread Safety Argument
+    //   - each stripe's map and queue are only accessed while holding the
+    //     lock of that stripe; a shape always maps to the same stripe
+    //   - enabled is volatile; nodes created while it changes may or may not
+    //     be interned, which is safe since interning never changes equality
+    //   - nodes are immutable, so sharing them across threads is safe
+
+    private Interner() {
+        // not instantiable
+    }
+    /** @return whether the variants intern the nodes they create */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    /** @param enable whether the variants should intern the nodes they create */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+    /**
+     * Returns the canonical instance of a whole expression tree
+     * @param expr any expression
+     * @return an expression equal to expr, with the same grouping, in which
+     *         every node is canonical; repeated calls on trees of the same
+     *         shape return the same instance
+     */
+    public static Expression intern(Expression expr) {
+        return Traversal.fold(expr, new Traversal.Fold<Expression>() {
+            @Override public Expression leaf(Expression leaf) {
+                return canonical(leaf);
+            }
+            /** @return null while operands 0..i are all unchanged, else those operands rebuilt */
+            @Override public Expression combine(Expression node, int i,
+                    Expression soFar, Expression operand) {
+                if (soFar == null && operand == Traversal.operand(node, i)) {
+                    return null;
+                }
+                final Expression left = (soFar != null) ? soFar
+                        : (i == 0) ? null : prefix(node, i);
+                if (left == null) {
+                    return operand;
+                }
+                return (node instanceof Addition)
+                        ? new Addition(left, operand) : new Multiplication(left, operand);
+            }
+            @Override public Expression finish(Expression node, Expression rebuilt) {
+                return canonical((rebuilt == null) ? node : rebuilt);
+            }
+        });
+    }
+    /** @return the sum or product of the first count operands of node */
+    private static Expression prefix(Expression node, int count) {
+        return (node instanceof Addition)
+                ? ((Addition) node).prefix(count) : ((Multiplication) node).prefix(count);
+    }
+    /** @return number of canonical nodes currently in the table, including some unreachable ones */
+    public static int size() {
+        int size = 0;
+        for (Stripe stripe : TABLE) {
+            size += stripe.size();
+        }
+        return size;
+    }
+    /**
+     * @param candidate a node whose operands, if any, are canonical
+     * @return the canonical node of the same shape as candidate; candidate
+     *         itself if there was none
+     */
+    @SuppressWarnings("unchecked")
+    static <E extends Expression> E canonical(E candidate) {
+        Object shape = shapeOf(candidate);
+        int hash = shape.hashCode();
+        Stripe stripe = TABLE[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+        return (E) stripe.canonical(shape, candidate);
+    }
+    private static Object shapeOf(Expression expr) {
+        if (expr instanceof Value) {
+            return Double.doubleToLongBits(((Value) expr).num());
+        }
+        if (expr instanceof Variable) {
+            return expr.toString();
+        }
+        if (expr instanceof Addition) {
+            Addition sum = (Addition) expr;
+            return new Shape(Shape.ADDITION, sum.terms(), sum.termCount(), sum.hashCode());
+        }
+        Multiplication product = (Multiplication) expr;
+        return new Shape(Shape.MULTIPLICATION,
+                product.factors(), product.factorCount(), product.hashCode());
+    }
+
+    /**
+     * The exact shape of a sum or product, by operator and operand identity.
+     * It holds the operands rather than the node, so that the table doesn't
+     * keep its nodes reachable.
+     */
+    private static final class Shape {
+        private static final int ADDITION = 1;
+        private static final int MULTIPLICATION = 2;
+
+        private final int operator;
+        private final Operands operands;
+        private final int count;
+        private final int hash;
+
+        private Shape(int operator, Operands operands, int count, int hash) {
+            this.operator = operator;
+            this.operands = operands;
+            this.count = count;
+            this.hash = hash;
+        }
+        @Override public boolean equals(Object thatObject) {
+            if (!(thatObject instanceof Shape)) {
+                return false;
+            }
+            Shape that = (Shape) thatObject;
+            return operator == that.operator && count == that.count
+                    && hash == that.hash
+                    && operands.sameItems(count, that.operands);
+        }
+        @Override public int hashCode() {
+            return 37*operator + hash;
+        }
+    }
+
+    /** A weak reference to a canonical node that remembers its shape */
+    private static final class NodeRef extends WeakReference<Expression> {
+        private final Object shape;
+
+        private NodeRef(Object shape, Expression node, ReferenceQueue<Expression> queue) {
+            super(node, queue);
+            this.shape = shape;
+        }
+    }
+
+    /** One lock's share of the table */
+    private static final class Stripe {
+        private final Map<Object, NodeRef> nodes = new HashMap<>();
+        private final ReferenceQueue<Expression> collected = new ReferenceQueue<>();
+
+        private synchronized Expression canonical(Object shape, Expression candidate) {
+            expunge();
+            NodeRef ref = nodes.get(shape);
+            Expression existing = (ref == null) ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            nodes.put(shape, new NodeRef(shape, candidate, collected));
+            return candidate;
+        }
+        private synchronized int size() {
+            expunge();
+            return nodes.size();
+        }
+        /** Removes the entries of nodes that have been garbage collected */
+        private void expunge() {
+            NodeRef ref;
+            while ((ref = (NodeRef) collected.poll()) != null) {
+                nodes.remove(ref.shape, ref);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package expressivo;
+
+/**
+ * Loops over blocks of rows for batch evaluation, unrolled and fused.
+ *
+ * Each kernel handles LANES rows per iteration, with the same operation
+ * written out for each, then finishes the rows that don't fill a group one
+ * by one. This is plain scalar Java: it does not use the Vector API
+ * (jdk.incubator.vector), which this Java 8 code base can't depend on, and
+ * nothing here issues SIMD instructions itself. Unrolling cuts the loop
+ * overhead per row, and HotSpot may or may not pack the unrolled statements
+ * into vector instructions on a given JVM and CPU. The kernels that multiply
+ * and add in one pass fuse two instructions of a program, reading and
+ * writing the rows once instead of twice, which helps sums of products,
+ * most of a polynomial.
+ *
+ * The kernels are used unless the JVM is started with
+ * -Dexpressivo.eval.lanes=false, which selects the plain row-by-row loops of
+ * StackProgram instead.
+ */
+final class LaneKernels {
+    /** Whether batch evaluation uses these kernels */
+    static final boolean ENABLED =
+            Boolean.parseBoolean(System.getProperty("expressivo.eval.lanes", "true"));
+    /** Rows per unrolled iteration */
+    static final int LANES = 4;
+
+    private LaneKernels() {
+        // not instantiable
+    }
+    /** @return the number of rows out of n that fill whole groups of LANES */
+    private static int loopBound(int n) {
+        return n - n % LANES;
+    }
+    /** target[i] += source[from + i] for 0 <= i < n */
+    static void add(double[] target, double[] source, int from, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] += source[from + i];
+            target[i + 1] += source[from + i + 1];
+            target[i + 2] += source[from + i + 2];
+            target[i + 3] += source[from + i + 3];
+        }
+        for (; i < n; i++) {
+            target[i] += source[from + i];
+        }
+    }
+    /** target[i] *= source[from + i] for 0 <= i < n */
+    static void multiply(double[] target, double[] source, int from, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] *= source[from + i];
+            target[i + 1] *= source[from + i + 1];
+            target[i + 2] *= source[from + i + 2];
+            target[i + 3] *= source[from + i + 3];
+        }
+        for (; i < n; i++) {
+            target[i] *= source[from + i];
+        }
+    }
+    /** target[i] += num for 0 <= i < n */
+    static void add(double[] target, double num, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] += num;
+            target[i + 1] += num;
+            target[i + 2] += num;
+            target[i + 3] += num;
+        }
+        for (; i < n; i++) {
+            target[i] += num;
+        }
+    }
+    /** target[i] *= num for 0 <= i < n */
+    static void multiply(double[] target, double num, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] *= num;
+            target[i + 1] *= num;
+            target[i + 2] *= num;
+            target[i + 3] *= num;
+        }
+        for (; i < n; i++) {
+            target[i] *= num;
+        }
+    }
+    /** target[i] += left[from + i] * right[from + i] for 0 <= i < n */
+    static void addProduct(double[] target, double[] left, double[] right, int from, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] += left[from + i] * right[from + i];
+            target[i + 1] += left[from + i + 1] * right[from + i + 1];
+            target[i + 2] += left[from + i + 2] * right[from + i + 2];
+            target[i + 3] += left[from + i + 3] * right[from + i + 3];
+        }
+        for (; i < n; i++) {
+            target[i] += left[from + i] * right[from + i];
+        }
+    }
+    /** target[i] += source[from + i] * num for 0 <= i < n */
+    static void addProduct(double[] target, double[] source, double num, int from, int n) {
+        final int bound = loopBound(n);
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            target[i] += source[from + i] * num;
+            target[i + 1] += source[from + i + 1] * num;
+            target[i + 2] += source[from + i + 2] * num;
+            target[i + 3] += source[from + i + 3] * num;
+        }
+        for (; i < n; i++) {
+            target[i] += source[from + i] * num;
+        }
+    }
+}
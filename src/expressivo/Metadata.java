@@ -0,0 +1,98 @@
+package expressivo;
+
+/**
+ * Facts about an expression that sums and products record for every prefix
+ * of their operands when they are built, so reading them is O(1):
+ *   variables  a 64-bit Bloom filter of the variables of the expression,
+ *              one bit per variable chosen by its hash code; a clear bit
+ *              means no variable with that bit occurs
+ *   nodeCount  the number of nodes of the expression as a binary tree,
+ *              counting shared subtrees once per occurrence, saturated at
+ *              Long.MAX_VALUE
+ *   depth      the number of nodes on the longest path from the root to a
+ *              leaf of that binary tree
+ *   degree     the degree of the expression as written, as a polynomial,
+ *              saturated at Integer.MAX_VALUE
+ *   constants  the sum of Double.hashCode of the exact number of every
+ *              Value of the expression, including the digits past the
+ *              5th decimal place that equals() ignores
+ *
+ * differentiate() and substitute() use the variables to skip subtrees that
+ * can't contain the variables they act on; DerivativeCache hashes the
+ * constants, so that numbers equal only to 5 decimal places are kept apart.
+ */
+final class Metadata {
+    private Metadata() {
+        // not instantiable
+    }
+    /** @return the bit of variable in variables masks */
+    static long bit(String variable) {
+        final int hash = variable.hashCode();
+        return 1L << (hash ^ (hash >>> 16));
+    }
+    /** @return the variables mask of e */
+    static long variables(Expression e) {
+        if (e instanceof Variable) {
+            return bit(e.toString());
+        } else if (e instanceof Addition) {
+            return ((Addition) e).variables();
+        } else if (e instanceof Multiplication) {
+            return ((Multiplication) e).variables();
+        }
+        return 0;
+    }
+    /** @return whether variable may occur in e; false means it certainly doesn't */
+    static boolean mayContain(Expression e, String variable) {
+        return (variables(e) & bit(variable)) != 0;
+    }
+    /** @return the number of nodes of e */
+    static long nodeCount(Expression e) {
+        if (e instanceof Addition) {
+            return ((Addition) e).nodeCount();
+        } else if (e instanceof Multiplication) {
+            return ((Multiplication) e).nodeCount();
+        }
+        return 1;
+    }
+    /** @return the depth of e */
+    static int depth(Expression e) {
+        if (e instanceof Addition) {
+            return ((Addition) e).depth();
+        } else if (e instanceof Multiplication) {
+            return ((Multiplication) e).depth();
+        }
+        return 1;
+    }
+    /** @return the degree of e */
+    static int degree(Expression e) {
+        if (e instanceof Variable) {
+            return 1;
+        } else if (e instanceof Addition) {
+            return ((Addition) e).degree();
+        } else if (e instanceof Multiplication) {
+            return ((Multiplication) e).degree();
+        }
+        return 0;
+    }
+    /** @return the constants hash of e */
+    static int constants(Expression e) {
+        if (e instanceof Value) {
+            return Double.hashCode(((Value) e).num());
+        } else if (e instanceof Addition) {
+            return ((Addition) e).constants();
+        } else if (e instanceof Multiplication) {
+            return ((Multiplication) e).constants();
+        }
+        return 0;
+    }
+    /** @return a + b, or Long.MAX_VALUE if that overflows; a, b >= 0 */
+    static long saturatedAdd(long a, long b) {
+        final long sum = a + b;
+        return (sum < 0) ? Long.MAX_VALUE : sum;
+    }
+    /** @return a + b, or Integer.MAX_VALUE if that overflows; a, b >= 0 */
+    static int saturatedAdd(int a, int b) {
+        final int sum = a + b;
+        return (sum < 0) ? Integer.MAX_VALUE : sum;
+    }
+}
@@ -1,112 +1,197 @@
 package expressivo;
 
-import java.util.Map;
+import java.io.IOException;
 
 /**
  * An immutable type representing a multiplication expression
+ * 
+ * A multiplication holds the factors of a product grouped to the left, as in
+ * ((f0)*(f1))*(f2), in one flat array; products nested as the left operand
+ * are flattened when it's created, since that is how they are grouped.
  */
 public class Multiplication implements Expression{
-    private final Expression left;
-    private final Expression right;
+    private final Operands factors;
+    private final int factorCount;
+    private final int hash;
 
     // Abstraction Function
-    //   represents a multiplication expression made up of
-    //   two subexpressions
+    //   represents the product (...((factors[0])*(factors[1]))*...)*(factors[factorCount-1]),
+    //   grouped from the left
     //
     // Representation Invariant
-    //   The left and right are non-null immutable expressions
+    //   - factorCount >= 2
+    //   - factors[0..factorCount) are non-null immutable expressions,
+    //     factors[0] not a Multiplication
+    //   - hash == factors.prefixHash(factorCount), where the hash of the
+    //     first k factors is 37*(37 + hash of the first k-1) + hash of
+    //     factor k, the hash of a binary product of left and right
     //
     // Safety From Exposure
     //   - All fields are private and final
-    //   - left and right are required to be immutable
-    //   - Multiplication shares its rep with other implementations
-    //     but they do not modify it
+    //   - factors may be shared with other multiplications, which only
+    //     ever append past their own factors, so the first factorCount
+    //     slots of factors never change
+    //   - the factors are immutable
     
+    private static final int PRIME = 37;
+
     private void checkRep() {
-        assert left != null;
-        assert right != null;
+        assert factors != null;
+        assert factorCount >= 2;
+        assert hash == factors.prefixHash(factorCount);
     }
     public Multiplication(Expression left, Expression right) {
-        this.left = left;
-        this.right = right;
+        if (left instanceof Multiplication) {
+            Multiplication product = (Multiplication) left;
+            this.factors = appendFactor(product.factors, product.factorCount, right);
+            this.factorCount = product.factorCount + 1;
+        } else {
+            this.factors = appendFactor(Operands.of(true, left, left.hashCode()), 1, right);
+            this.factorCount = 2;
+        }
+        this.hash = factors.prefixHash(factorCount);
+        checkRep();
+    }
+    /** Creates the product of the first factorCount slots of factors */
+    private Multiplication(Operands factors, int factorCount) {
+        this.factors = factors;
+        this.factorCount = factorCount;
+        this.hash = factors.prefixHash(factorCount);
         checkRep();
     }
+    private static Operands appendFactor(Operands factors, int count, Expression factor) {
+        // hash(l*r) = 37*(37 + hash(l)) + hash(r)
+        int hash = PRIME*(PRIME + factors.prefixHash(count)) + factor.hashCode();
+        return factors.append(count, factor, hash);
+    }
+    /**
+     * @return a Multiplication equal to new Multiplication(left, right); the canonical one if
+     *         Interner is enabled
+     */
+    static Multiplication of(Expression left, Expression right) {
+        Multiplication product = new Multiplication(left, right);
+        return Interner.isEnabled() ? Interner.canonical(product) : product;
+    }
+    /** @return the number of factors of this product, >= 2 */
+    int factorCount() {
+        return factorCount;
+    }
+    /** @return the factor at index i of this product, 0 <= i < factorCount() */
+    Expression factor(int i) {
+        assert 0 <= i && i < factorCount;
+        return factors.get(i);
+    }
+    /** @return the operands whose first factorCount() slots are the factors of this product */
+    Operands factors() {
+        return factors;
+    }
+    /**
+     * @param count 1 <= count <= factorCount()
+     * @return the product of the first count factors, or the first factor if count is 1
+     */
+    Expression prefix(int count) {
+        if (count == 1) {
+            return factors.get(0);
+        }
+        return (count == factorCount) ? this : new Multiplication(factors, count);
+    }
+    /** @return the left operand of this multiplication */
+    Expression left() {
+        return prefix(factorCount - 1);
+    }
+    /** @return the right operand of this multiplication */
+    Expression right() {
+        return factors.get(factorCount - 1);
+    }
+    /** @return the variables mask of this, as defined by Metadata */
+    long variables() {
+        return factors.prefixVariables(factorCount);
+    }
+    /** @return the number of nodes of this as a binary tree, as defined by Metadata */
+    long nodeCount() {
+        return factors.prefixNodes(factorCount);
+    }
+    /** @return the depth of this as a binary tree, as defined by Metadata */
+    int depth() {
+        return factors.prefixDepth(factorCount);
+    }
+    /** @return the degree of this as written, as defined by Metadata */
+    int degree() {
+        return factors.prefixDegree(factorCount);
+    }
+    /** @return the constants hash of this, as defined by Metadata */
+    int constants() {
+        return factors.prefixConstants(factorCount);
+    }
     @Override public Expression addExpr(Expression e) {
-        if (e.equals(new Value(0))) {
+        if (e.equals(Value.ZERO)) {
             return this;
         }
         if (e.equals(this)) {
-            return this.multiplyExpr(new Value(2));
+            return this.multiplyExpr(Value.TWO);
         }
-        return new Addition(this, e);
+        return Addition.of(this, e);
     }
     @Override public Expression multiplyExpr(Expression e) {
-        Value zero = new Value(0);
+        Value zero = Value.ZERO;
         if (e.equals(zero)) {
             return zero;
         }
-        if (e.equals(new Value(1))) {
+        if (e.equals(Value.ONE)) {
             return this;
         }
-        return new Multiplication(this, e);
+        return Multiplication.of(this, e);
     }
     @Override public Expression addVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Addition(new Variable(variable), this);
+        return Addition.of(Variable.of(variable), this);
     }
     @Override public Expression multiplyVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Multiplication(new Variable(variable), this);
+        return Multiplication.of(Variable.of(variable), this);
     }
     @Override public Expression addConstant(double num) {
         assert num >= 0 && Double.isFinite(num);
                 
-        Value valNum = new Value(num);
-        if (valNum.equals(new Value(0))) {
+        Value valNum = Value.of(num);
+        if (valNum.equals(Value.ZERO)) {
             return this;
         }
-        return new Addition(valNum, this);
+        return Addition.of(valNum, this);
     }
     @Override public Expression appendCoefficient(double num) {
         assert num >= 0 && Double.isFinite(num);
         
-        Value valNum = new Value(num);
-        Value zero = new Value(0);
+        Value valNum = Value.of(num);
+        Value zero = Value.ZERO;
         if (valNum.equals(zero)) {
             return zero;
         }
-        if (valNum.equals(new Value(1))) {
+        if (valNum.equals(Value.ONE)) {
             return this;
         }
-        return new Multiplication(valNum, this);
+        return Multiplication.of(valNum, this);
     }
     @Override public Expression differentiate(String variable) {
         assert variable != null && variable != "";
         // d(u*v)/dx = v*(du/dx) + u*(dv/dx)
-        // where u*v = this, u = left, v = right
-        Expression leftSumExpr = this.right.multiplyExpr(this.left.differentiate(variable));
-        Expression rightSumExpr = this.left.multiplyExpr(this.right.differentiate(variable));
-
-        checkRep();               
-        return leftSumExpr.addExpr(rightSumExpr);
+        // where u*v = this, u = all factors but the last, v = last factor,
+        // applied from the innermost product outwards, see Traversal
+        return Traversal.fold(this, new Traversal.Differentiation(variable));
     }
-    @Override public Expression substitute(Map<String, Double> environment) {
+    @Override public Expression substitute(Environment environment) {
         assert environment != null;
-        
-        return left.substitute(environment)
-                .multiplyExpr(right.substitute(environment));
+        return Traversal.fold(this, new Traversal.Substitution(environment));
     }
     @Override public String toString() {
-        String leftString = this.left.toString();
-        String rightString = this.right.toString();
-        leftString = "(" + leftString + ")";
-        rightString = "(" + rightString + ")";
-
+        return Rendering.render(this);
+    }
+    @Override public void appendTo(Appendable out) throws IOException {
+        new Traversal.Appending(out).render(this);
         checkRep();
-        return leftString + "*" + rightString;
-    }  
+    }
     @Override public boolean equals(Object thatObject) {
         if (thatObject == this) {
             return true;
@@ -115,19 +200,19 @@ public class Multiplication implements Expression{
             return false;
         }
         Multiplication thatMult = (Multiplication) thatObject;
+        if (this.hash != thatMult.hash
+                || this.factorCount != thatMult.factorCount) {
+            return false;
+        }
+        if (this.factors.sameItems(factorCount, thatMult.factors)) {
+            return true;
+        }
 
         checkRep();
-        return this.toString().equals(thatMult.toString());
+        return Traversal.equal(this, thatMult);
     }
     @Override public int hashCode() {
-        final int prime = 37;
-        int result = 1;
-        
-        result = prime*result + this.left.hashCode();
-        result = prime*result + this.right.hashCode();
-
-        checkRep();
-        return result;
+        return hash;
     }
 
 }
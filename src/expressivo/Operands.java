@@ -0,0 +1,176 @@
+package expressivo;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * An append-only array of the operands of n-ary sums and products.
+ *
+ * An Addition or Multiplication with n operands reads the first n slots of an
+ * Operands, and several nodes may share one: appending to the node that owns
+ * the last written slot claims the next slot in place, so building a sum or
+ * product from left to right costs amortized O(1) per operand. Appending to
+ * any other node copies its operands into a new, larger array first. Written
+ * slots are never changed, so every node keeps seeing the same operands.
+ *
+ * Each slot also records the hash code, the Metadata and, for sums, the
+ * number of flattened terms of the node made of the operands up to and
+ * including it, so a prefix of a node can be viewed
+ * in O(1), and every node knows its metadata without walking its operands.
+ */
+final class Operands {
+    private static final AtomicIntegerFieldUpdater<Operands> CLAIMED =
+            AtomicIntegerFieldUpdater.newUpdater(Operands.class, "claimed");
+
+    private final boolean product;
+    private final Expression[] items;
+    private final int[] prefixHashes;
+    private final long[] prefixVariables;
+    private final long[] prefixNodes;
+    private final int[] prefixDepths;
+    private final int[] prefixDegrees;
+    private final int[] prefixConstants;
+    private final int[] prefixSizes;
+    private volatile int claimed;
+
+    // Abstraction Function
+    //   represents the operands items[0..claimed) of a product if product
+    //   is true, of a sum otherwise, where the node made of items[0..i] has
+    //   hash code prefixHashes[i], and variables mask, node count, depth,
+    //   degree and constants prefixVariables[i], prefixNodes[i],
+    //   prefixDepths[i], prefixDegrees[i] and prefixConstants[i], as
+    //   defined by Metadata, and prefixSizes[i] terms once nested sums
+    //   are flattened (i+1 for a product)
+    //
+    // Representation Invariant
+    //   - 0 <= claimed <= items.length, the length of every prefix array
+    //   - items[0..claimed) are non-null, except for a slot just claimed
+    //     by a thread that has not yet written it
+    //
+    // Thread Safety Argument
+    //   - a slot is written only by the thread whose CAS on claimed
+    //     claimed it, and only before that thread creates the node that
+    //     reads it
+    //   - nodes hold their Operands in a final field, so the slots
+    //     written before a node was constructed are visible to every
+    //     thread that sees the node
+
+    private Operands(boolean product, int capacity) {
+        this.product = product;
+        this.items = new Expression[capacity];
+        this.prefixHashes = new int[capacity];
+        this.prefixVariables = new long[capacity];
+        this.prefixNodes = new long[capacity];
+        this.prefixDepths = new int[capacity];
+        this.prefixDegrees = new int[capacity];
+        this.prefixConstants = new int[capacity];
+        this.prefixSizes = new int[capacity];
+    }
+    /**
+     * @param product true for the factors of a product, false for the terms of a sum
+     * @param first first operand
+     * @param firstHash hash code of first
+     * @return new operands holding only first, with room to grow
+     */
+    static Operands of(boolean product, Expression first, int firstHash) {
+        Operands operands = new Operands(product, 4);
+        operands.items[0] = first;
+        operands.prefixHashes[0] = firstHash;
+        operands.prefixVariables[0] = Metadata.variables(first);
+        operands.prefixNodes[0] = Metadata.nodeCount(first);
+        operands.prefixDepths[0] = Metadata.depth(first);
+        operands.prefixDegrees[0] = Metadata.degree(first);
+        operands.prefixConstants[0] = Metadata.constants(first);
+        operands.prefixSizes[0] = product ? 1 : Addition.size(first);
+        operands.claimed = 1;
+        return operands;
+    }
+    /** @return the operand in slot i, 0 <= i < count of the reading node */
+    Expression get(int i) {
+        return items[i];
+    }
+    /** @return hash code of the node made of the first count operands */
+    int prefixHash(int count) {
+        return prefixHashes[count - 1];
+    }
+    /** @return variables mask of the node made of the first count operands */
+    long prefixVariables(int count) {
+        return prefixVariables[count - 1];
+    }
+    /** @return number of nodes of the node made of the first count operands */
+    long prefixNodes(int count) {
+        return prefixNodes[count - 1];
+    }
+    /** @return depth of the node made of the first count operands */
+    int prefixDepth(int count) {
+        return prefixDepths[count - 1];
+    }
+    /** @return degree of the node made of the first count operands */
+    int prefixDegree(int count) {
+        return prefixDegrees[count - 1];
+    }
+    /** @return constants hash of the node made of the first count operands */
+    int prefixConstants(int count) {
+        return prefixConstants[count - 1];
+    }
+    /** @return number of flattened terms of the node made of the first count operands */
+    int prefixSize(int count) {
+        return prefixSizes[count - 1];
+    }
+    /**
+     * Appends an operand after the first count operands
+     * @param count number of operands of the node being extended, >= 1
+     * @param operand operand to add after them
+     * @param hash hash code of the node made of those operands and operand
+     * @return operands whose first count+1 slots are this[0..count) ++ operand:
+     *         this if slot count was still free, else a new copy
+     */
+    Operands append(int count, Expression operand, int hash) {
+        if (count < items.length && CLAIMED.compareAndSet(this, count, count + 1)) {
+            write(count, operand, hash);
+            return this;
+        }
+        Operands copy = new Operands(product, Math.max(4, 2 * (count + 1)));
+        System.arraycopy(items, 0, copy.items, 0, count);
+        System.arraycopy(prefixHashes, 0, copy.prefixHashes, 0, count);
+        System.arraycopy(prefixVariables, 0, copy.prefixVariables, 0, count);
+        System.arraycopy(prefixNodes, 0, copy.prefixNodes, 0, count);
+        System.arraycopy(prefixDepths, 0, copy.prefixDepths, 0, count);
+        System.arraycopy(prefixDegrees, 0, copy.prefixDegrees, 0, count);
+        System.arraycopy(prefixConstants, 0, copy.prefixConstants, 0, count);
+        System.arraycopy(prefixSizes, 0, copy.prefixSizes, 0, count);
+        copy.write(count, operand, hash);
+        copy.claimed = count + 1;
+        return copy;
+    }
+    /** Writes operand into slot i >= 1, claimed by this thread, with the metadata of its prefix */
+    private void write(int i, Expression operand, int hash) {
+        items[i] = operand;
+        prefixHashes[i] = hash;
+        prefixVariables[i] = prefixVariables[i - 1] | Metadata.variables(operand);
+        // one more binary node joins the prefix before and the operand
+        prefixNodes[i] = Metadata.saturatedAdd(prefixNodes[i - 1],
+                Metadata.saturatedAdd(Metadata.nodeCount(operand), 1));
+        prefixDepths[i] = 1 + Math.max(prefixDepths[i - 1], Metadata.depth(operand));
+        prefixDegrees[i] = product
+                ? Metadata.saturatedAdd(prefixDegrees[i - 1], Metadata.degree(operand))
+                : Math.max(prefixDegrees[i - 1], Metadata.degree(operand));
+        prefixConstants[i] = prefixConstants[i - 1] + Metadata.constants(operand);
+        prefixSizes[i] = prefixSizes[i - 1] + (product ? 1 : Addition.size(operand));
+    }
+    /**
+     * @param count number of operands of the nodes being compared
+     * @param that other operands
+     * @return true if the first count operands of this and that are the same instances
+     */
+    boolean sameItems(int count, Operands that) {
+        if (this == that) {
+            return true;
+        }
+        for (int i = 0; i < count; i++) {
+            if (this.items[i] != that.items[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
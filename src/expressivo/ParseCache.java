@@ -0,0 +1,196 @@
+package expressivo;
+
+import expressivo.parser.ExpressionFastParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A thread-safe, size-bounded cache of parsed expressions, keyed by input string.
+ *
+ * Expressions are immutable, so one parsed instance is shared by every caller
+ * that parses the same string. Inputs that fail to parse are cached as well,
+ * and parsing them again throws a new IllegalArgumentException with the
+ * original message without re-running the parser.
+ *
+ * Expression.parse goes through the cache returned by shared(), sized by the
+ * system properties expressivo.parseCache.capacity (default 4096, 0 disables
+ * caching) and expressivo.parseCache.eviction (LRU or FIFO, default LRU).
+ */
+public class ParseCache {
+    /** Policy deciding which entry is dropped when the cache is full */
+    public enum Eviction {
+        /** drop the entry least recently parsed */
+        LRU,
+        /** drop the entry first inserted */
+        FIFO
+    }
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final ParseCache SHARED = new ParseCache(
+            Integer.getInteger("expressivo.parseCache.capacity", DEFAULT_CAPACITY),
+            Eviction.valueOf(System.getProperty("expressivo.parseCache.eviction",
+                    Eviction.LRU.name())));
+
+    private final int capacity;
+    private final Eviction eviction;
+    private final Function<String, Expression> parser;
+    private final LinkedHashMap<String, Result> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // Abstraction Function
+    //   represents the results of parsing each key of entries with parser,
+    //   where an entry holds either the parsed expression or the message of
+    //   the IllegalArgumentException thrown for that key. hits, misses and
+    //   evictions count lookups found in, lookups absent from, and entries
+    //   dropped from the cache since it was created or last cleared
+    //
+    // Representation Invariant
+    //   - capacity >= 0
+    //   - entries.size() <= capacity
+    //   - hits, misses, evictions >= 0
+    //
+    // Safety From Exposure
+    //   - all fields are private; entries is never returned
+    //   - cached expressions are immutable and may be shared
+    //
+    // Thread Safety Argument
+    //   - entries and the counters are only accessed while holding the
+    //     lock of this; parsing happens outside the lock, so two threads
+    //     may parse the same input at once, and the later result wins
+
+    private void checkRep() {
+        assert capacity >= 0;
+        assert entries.size() <= capacity;
+        assert hits >= 0 && misses >= 0 && evictions >= 0;
+    }
+    /**
+     * Creates an empty cache using Expression's default parser
+     * @param capacity maximum number of inputs remembered, >= 0
+     * @param eviction policy choosing the entry to drop when full
+     */
+    public ParseCache(int capacity, Eviction eviction) {
+        this(capacity, eviction, ExpressionFastParser::parse);
+    }
+    /**
+     * Creates an empty cache in front of a parser
+     * @param capacity maximum number of inputs remembered, >= 0
+     * @param eviction policy choosing the entry to drop when full
+     * @param parser parses an input or throws IllegalArgumentException
+     *        if it is invalid; must return equal results for equal inputs
+     */
+    public ParseCache(int capacity, Eviction eviction,
+            Function<String, Expression> parser) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("negative capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.eviction = eviction;
+        this.parser = parser;
+        this.entries = new LinkedHashMap<String, Result>(16, 0.75f,
+                eviction == Eviction.LRU) {
+            private static final long serialVersionUID = 1;
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                if (size() > ParseCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+        checkRep();
+    }
+    /** @return the cache used by Expression.parse */
+    public static ParseCache shared() {
+        return SHARED;
+    }
+    /**
+     * Parse an expression, reusing an earlier result for the same input
+     * @param input expression to parse, as defined in the PS3 handout.
+     * @return expression AST for the input, possibly shared with earlier callers
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public Expression parse(String input) {
+        assert input != null;
+
+        Result entry;
+        synchronized (this) {
+            entry = entries.get(input);
+            if (entry != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+        }
+        if (entry == null) {
+            try {
+                entry = new Result(parser.apply(input), null);
+            } catch (IllegalArgumentException iae) {
+                entry = new Result(null, String.valueOf(iae.getMessage()));
+            }
+            if (capacity > 0) {
+                synchronized (this) {
+                    entries.put(input, entry);
+                    checkRep();
+                }
+            }
+        }
+        if (entry.error != null) {
+            throw new IllegalArgumentException(entry.error);
+        }
+        return entry.expr;
+    }
+    /** Removes every entry and resets the counters */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        checkRep();
+    }
+    /** @return maximum number of inputs this cache remembers */
+    public int capacity() {
+        return capacity;
+    }
+    /** @return policy choosing the entry to drop when this cache is full */
+    public Eviction eviction() {
+        return eviction;
+    }
+    /** @return number of inputs currently remembered, valid or not */
+    public synchronized int size() {
+        return entries.size();
+    }
+    /** @return number of calls to parse answered from the cache */
+    public synchronized long hits() {
+        return hits;
+    }
+    /** @return number of calls to parse that ran the parser */
+    public synchronized long misses() {
+        return misses;
+    }
+    /** @return number of entries dropped to stay within capacity */
+    public synchronized long evictions() {
+        return evictions;
+    }
+    @Override public synchronized String toString() {
+        return "ParseCache[" + eviction + " " + entries.size() + "/" + capacity
+                + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + "]";
+    }
+
+    /** Outcome of parsing one input: exactly one of expr and error is non-null */
+    private static class Result {
+        private final Expression expr;
+        private final String error;
+
+        private Result(Expression expr, String error) {
+            this.expr = expr;
+            this.error = error;
+            assert (expr == null) != (error == null);
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable polynomial in canonical form: a sum of monomials, each a
+ * product of variables raised to positive powers, with their coefficients.
+ *
+ * Unlike the Expression variants, which only merge like terms that sit next
+ * to each other, a polynomial collects every like term, so x + y + x is
+ * 2*x + y. Adding and multiplying polynomials, differentiating and
+ * substituting all produce canonical polynomials, so a polynomial has at
+ * most one term per monomial however it was computed. Convert from and to
+ * expressions with of() and toExpression(); Commands.canonicalize and the
+ * !canonicalize command of Session do both. As with Value, a coefficient
+ * that would overflow to infinity is clamped to Double.MAX_VALUE.
+ */
+public final class Polynomial {
+    private static final Polynomial ZERO = new Polynomial(Collections.emptyMap());
+
+    private final Map<Monomial, Double> terms;
+
+    // Abstraction Function
+    //   represents the sum of coefficient*monomial over the entries
+    //   (monomial, coefficient) of terms
+    //
+    // Representation Invariant
+    //   - terms is non-null and unmodifiable
+    //   - every coefficient is finite and > 0
+    //
+    // Safety From Exposure
+    //   - terms is private and final, and wrapped unmodifiable
+    //   - monomials are immutable, and coefficients are immutable Doubles
+    //   - no method returns terms
+
+    private void checkRep() {
+        assert terms != null;
+        for (double coefficient : terms.values()) {
+            assert coefficient > 0 && Double.isFinite(coefficient);
+        }
+    }
+    /** @param terms owned by this polynomial from now on, coefficients > 0 */
+    private Polynomial(Map<Monomial, Double> terms) {
+        this.terms = Collections.unmodifiableMap(terms);
+        checkRep();
+    }
+    /**
+     * @param num a finite number >= 0
+     * @return the constant polynomial num
+     */
+    public static Polynomial constant(double num) {
+        assert num >= 0 && Double.isFinite(num);
+        if (num == 0) {
+            return ZERO;
+        }
+        return new Polynomial(Collections.singletonMap(Monomial.ONE, num));
+    }
+    /**
+     * @param variable nonempty case-sensitive string of letters, a-zA-Z
+     * @return the polynomial made of variable alone
+     */
+    public static Polynomial variable(String variable) {
+        assert variable != null && variable.matches("[a-zA-Z]+");
+        return new Polynomial(Collections.singletonMap(Monomial.of(variable), 1.0));
+    }
+    /**
+     * @param expr any expression
+     * @return the polynomial equal to expr, with its products expanded and
+     *         its like terms collected
+     */
+    public static Polynomial of(Expression expr) {
+        return Traversal.fold(expr, new Traversal.Fold<Polynomial>() {
+            @Override public Polynomial leaf(Expression leaf) {
+                return (leaf instanceof Value)
+                        ? constant(((Value) leaf).num()) : variable(leaf.toString());
+            }
+            @Override public Polynomial combine(Expression node, int i,
+                    Polynomial soFar, Polynomial operand) {
+                if (i == 0) {
+                    return operand;
+                }
+                return (node instanceof Addition) ? soFar.add(operand) : soFar.multiply(operand);
+            }
+        });
+    }
+    /** @return true if this polynomial has no variables */
+    public boolean isConstant() {
+        return terms.isEmpty()
+                || (terms.size() == 1 && terms.containsKey(Monomial.ONE));
+    }
+    /** @return number of monomials with a nonzero coefficient in this polynomial */
+    public int termCount() {
+        return terms.size();
+    }
+    /**
+     * @param that polynomial to add
+     * @return this + that
+     */
+    public Polynomial add(Polynomial that) {
+        if (that.terms.isEmpty()) {
+            return this;
+        }
+        if (this.terms.isEmpty()) {
+            return that;
+        }
+        Map<Monomial, Double> sum = new HashMap<>(this.terms);
+        for (Map.Entry<Monomial, Double> term : that.terms.entrySet()) {
+            sum.merge(term.getKey(), term.getValue(), Polynomial::clampedSum);
+        }
+        return new Polynomial(sum);
+    }
+    /**
+     * @param that polynomial to multiply by
+     * @return this * that, expanded
+     */
+    public Polynomial multiply(Polynomial that) {
+        if (this.terms.isEmpty() || that.terms.isEmpty()) {
+            return ZERO;
+        }
+        Map<Monomial, Double> product = new HashMap<>();
+        for (Map.Entry<Monomial, Double> left : this.terms.entrySet()) {
+            for (Map.Entry<Monomial, Double> right : that.terms.entrySet()) {
+                product.merge(left.getKey().multiply(right.getKey()),
+                        clamp(left.getValue() * right.getValue()), Polynomial::clampedSum);
+            }
+        }
+        return nonzero(product);
+    }
+    /**
+     * @param variable the variable to differentiate by, a case-sensitive
+     *        nonempty string of letters
+     * @return the derivative of this with respect to variable
+     */
+    public Polynomial differentiate(String variable) {
+        assert variable != null && variable != "";
+        Map<Monomial, Double> derivative = new HashMap<>();
+        for (Map.Entry<Monomial, Double> term : terms.entrySet()) {
+            Monomial monomial = term.getKey();
+            int exponent = monomial.exponentOf(variable);
+            if (exponent > 0) {
+                // d(c*x^n)/dx = c*n*x^(n-1)
+                derivative.merge(monomial.withExponent(variable, exponent - 1),
+                        clamp(term.getValue() * exponent), Polynomial::clampedSum);
+            }
+        }
+        return new Polynomial(derivative);
+    }
+    /**
+     * @param environment maps variables to values, finite and >= 0
+     * @return this with every variable v in environment replaced by
+     *         environment.get(v), like terms collected
+     */
+    public Polynomial substitute(Map<String, Double> environment) {
+        assert environment != null;
+        return substitute(Environment.of(environment));
+    }
+    /**
+     * @param environment values of variables, by slot
+     * @return this with every variable v bound in environment replaced by
+     *         its value, like terms collected
+     */
+    public Polynomial substitute(Environment environment) {
+        assert environment != null;
+        Map<Monomial, Double> result = new HashMap<>();
+        for (Map.Entry<Monomial, Double> term : terms.entrySet()) {
+            Monomial monomial = term.getKey();
+            double coefficient = term.getValue();
+            Monomial rest = monomial;
+            for (int i = 0; i < monomial.size(); i++) {
+                double num = environment.valueOf(monomial.variable(i));
+                if (!Double.isNaN(num)) {
+                    // once 0, stays 0: 0 times an overflowed power would be NaN
+                    coefficient = (coefficient == 0) ? 0
+                            : clamp(coefficient * Math.pow(num, monomial.exponent(i)));
+                    rest = rest.withExponent(monomial.variable(i), 0);
+                }
+            }
+            result.merge(rest, coefficient, Polynomial::clampedSum);
+        }
+        return nonzero(result);
+    }
+    /**
+     * @return an expression equal to this polynomial: the sum of its terms
+     *         from highest degree to lowest, each written as its coefficient,
+     *         left out if 1, times each variable as many times as its
+     *         exponent; 0 if this is zero
+     */
+    public Expression toExpression() {
+        List<Monomial> monomials = new ArrayList<>(terms.keySet());
+        Collections.sort(monomials);
+        Expression result = null;
+        for (Monomial monomial : monomials) {
+            Expression term = monomial.toExpression(terms.get(monomial));
+            result = (result == null) ? term : Addition.of(result, term);
+        }
+        return (result == null) ? Value.ZERO : result;
+    }
+    /** @return the rendering of toExpression() */
+    @Override public String toString() {
+        return toExpression().toString();
+    }
+    /**
+     * Two polynomials are equal if they have the same monomials with
+     * exactly the same coefficients.
+     */
+    @Override public boolean equals(Object thatObject) {
+        if (thatObject == this) {
+            return true;
+        }
+        if (!(thatObject instanceof Polynomial)) {
+            return false;
+        }
+        Polynomial that = (Polynomial) thatObject;
+        return this.terms.equals(that.terms);
+    }
+    @Override public int hashCode() {
+        return terms.hashCode();
+    }
+    /** @return num, or Double.MAX_VALUE if num is infinite; num >= 0 and not NaN */
+    private static double clamp(double num) {
+        return Double.isInfinite(num) ? Double.MAX_VALUE : num;
+    }
+    /** @return a + b, clamped to Double.MAX_VALUE; a, b finite and >= 0 */
+    private static double clampedSum(double a, double b) {
+        return clamp(a + b);
+    }
+    /** @return a polynomial of the entries of terms whose coefficient isn't 0 */
+    private static Polynomial nonzero(Map<Monomial, Double> terms) {
+        terms.values().removeIf(coefficient -> coefficient == 0);
+        return terms.isEmpty() ? ZERO : new Polynomial(terms);
+    }
+
+    /**
+     * A product of distinct variables raised to positive powers, such as
+     * x^2*y, ordered by degree, highest first, then by its variables.
+     */
+    private static final class Monomial implements Comparable<Monomial> {
+        private static final Monomial ONE = new Monomial(new String[0], new int[0]);
+
+        private final String[] variables;
+        private final int[] exponents;
+        private final int degree;
+        private final int hash;
+
+        // Abstraction Function
+        //   represents the product of variables[i]^exponents[i] for all i,
+        //   or 1 if there are none
+        //
+        // Representation Invariant
+        //   - variables.length == exponents.length
+        //   - variables are strictly increasing, and exponents are > 0
+        //   - degree is the sum of exponents, hash computed once
+        //
+        // Safety From Exposure
+        //   - the arrays are private, final, never changed after
+        //     construction, and never returned
+
+        private Monomial(String[] variables, int[] exponents) {
+            this.variables = variables;
+            this.exponents = exponents;
+            int sum = 0;
+            for (int exponent : exponents) {
+                sum += exponent;
+            }
+            this.degree = sum;
+            this.hash = 31*Arrays.hashCode(variables) + Arrays.hashCode(exponents);
+            checkRep();
+        }
+        private void checkRep() {
+            assert variables.length == exponents.length;
+            for (int i = 0; i < variables.length; i++) {
+                assert exponents[i] > 0;
+                assert i == 0 || variables[i - 1].compareTo(variables[i]) < 0;
+            }
+        }
+        private static Monomial of(String variable) {
+            return new Monomial(new String[] {variable}, new int[] {1});
+        }
+        private int size() {
+            return variables.length;
+        }
+        private String variable(int i) {
+            return variables[i];
+        }
+        private int exponent(int i) {
+            return exponents[i];
+        }
+        /** @return the exponent of variable in this, 0 if it doesn't appear */
+        private int exponentOf(String variable) {
+            int i = Arrays.binarySearch(variables, variable);
+            return (i < 0) ? 0 : exponents[i];
+        }
+        /** @return this with the exponent of variable, which appears in this, set to exponent >= 0 */
+        private Monomial withExponent(String variable, int exponent) {
+            int i = Arrays.binarySearch(variables, variable);
+            assert i >= 0;
+            if (exponent > 0) {
+                int[] newExponents = exponents.clone();
+                newExponents[i] = exponent;
+                return new Monomial(variables, newExponents);
+            }
+            if (variables.length == 1) {
+                return ONE;
+            }
+            String[] newVariables = new String[variables.length - 1];
+            int[] newExponents = new int[variables.length - 1];
+            System.arraycopy(variables, 0, newVariables, 0, i);
+            System.arraycopy(variables, i + 1, newVariables, i, newVariables.length - i);
+            System.arraycopy(exponents, 0, newExponents, 0, i);
+            System.arraycopy(exponents, i + 1, newExponents, i, newExponents.length - i);
+            return new Monomial(newVariables, newExponents);
+        }
+        /** @return this * that, merging the sorted variables of both */
+        private Monomial multiply(Monomial that) {
+            if (that.variables.length == 0) {
+                return this;
+            }
+            if (this.variables.length == 0) {
+                return that;
+            }
+            String[] newVariables = new String[this.size() + that.size()];
+            int[] newExponents = new int[newVariables.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < this.size() || j < that.size()) {
+                int order = (i == this.size()) ? 1
+                        : (j == that.size()) ? -1
+                        : this.variables[i].compareTo(that.variables[j]);
+                if (order <= 0) {
+                    newVariables[n] = this.variables[i];
+                    newExponents[n] = this.exponents[i++];
+                    if (order == 0) {
+                        newExponents[n] += that.exponents[j++];
+                    }
+                } else {
+                    newVariables[n] = that.variables[j];
+                    newExponents[n] = that.exponents[j++];
+                }
+                n++;
+            }
+            return new Monomial(Arrays.copyOf(newVariables, n), Arrays.copyOf(newExponents, n));
+        }
+        /** @return coefficient*this as an expression, with each variable repeated per its exponent */
+        private Expression toExpression(double coefficient) {
+            Expression result = (coefficient == 1 && variables.length > 0)
+                    ? null : Value.of(coefficient);
+            for (int i = 0; i < variables.length; i++) {
+                Variable variable = Variable.of(variables[i]);
+                for (int k = 0; k < exponents[i]; k++) {
+                    result = (result == null) ? variable : Multiplication.of(result, variable);
+                }
+            }
+            return result;
+        }
+        @Override public int compareTo(Monomial that) {
+            if (this.degree != that.degree) {
+                return Integer.compare(that.degree, this.degree);
+            }
+            for (int i = 0; i < Math.min(this.size(), that.size()); i++) {
+                int order = this.variables[i].compareTo(that.variables[i]);
+                if (order != 0) {
+                    return order;
+                }
+                if (this.exponents[i] != that.exponents[i]) {
+                    return Integer.compare(that.exponents[i], this.exponents[i]);
+                }
+            }
+            return Integer.compare(this.size(), that.size());
+        }
+        @Override public boolean equals(Object thatObject) {
+            if (thatObject == this) {
+                return true;
+            }
+            if (!(thatObject instanceof Monomial)) {
+                return false;
+            }
+            Monomial that = (Monomial) thatObject;
+            return this.hash == that.hash
+                    && Arrays.equals(this.variables, that.variables)
+                    && Arrays.equals(this.exponents, that.exponents);
+        }
+        @Override public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package expressivo;
+
+import java.io.IOException;
+
+/**
+ * Builds the strings returned by Expression.toString() with Expression.appendTo()
+ */
+final class Rendering {
+    private Rendering() {
+        // not instantiable
+    }
+    /**
+     * @param expr expression to render
+     * @return the characters expr.appendTo() writes, collected in one buffer
+     */
+    static String render(Expression expr) {
+        StringBuilder out = new StringBuilder();
+        try {
+            expr.appendTo(out);
+        } catch (IOException ioe) {
+            throw new AssertionError("StringBuilder doesn't throw IOException", ioe);
+        }
+        return out.toString();
+    }
+}
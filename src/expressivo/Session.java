@@ -0,0 +1,142 @@
+package expressivo;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A mutable console session: the commands of Main, run one input at a time
+ * against the current expression.
+ *
+ * The current expression is kept as an Expression, not as the string shown
+ * for it, so a chain of commands parses it once, and each command works on
+ * the tree left by the one before, with its metadata. Derivatives are kept
+ * in a DerivativeCache of the session, emptied whenever a new expression is
+ * entered, so repeated !d/d commands reuse the derivatives of the subtrees
+ * they share. Strings are only rendered for the output.
+ *
+ * This changes what a chain of commands can print. The console used to keep
+ * the string it had shown and parse it again for the next command, so every
+ * number was cut to the 5 decimal places printed, and the printed tree was
+ * simplified again as it was parsed. A session keeps the numbers in full: after
+ * y*x*(0.5 + 0.123456) and !d/dx, which shows (0.62345)*(y), the command
+ * !simplify y=1.000019 shows 0.62346, where re-parsing the shown derivative
+ * gave 0.62345. The exact number is the one the derivative stands for.
+ *
+ * Sessions are not thread-safe; give each user or connection its own.
+ */
+public class Session {
+    private static final String DIFFERENTIATE_PREFIX = "!d/d";
+    private static final String VARIABLE = "[A-Za-z]+";
+    private static final Pattern DIFFERENTIATE =
+            Pattern.compile(DIFFERENTIATE_PREFIX + "(" + VARIABLE + ") *");
+    private static final String SIMPLIFY_PREFIX = "!simplify";
+    private static final String ASSIGNMENT_REGEX = "(" + VARIABLE + ") *= *([^ ]+)";
+    private static final Pattern ASSIGNMENT = Pattern.compile(ASSIGNMENT_REGEX);
+    private static final Pattern SIMPLIFY =
+            Pattern.compile(SIMPLIFY_PREFIX + "( +" + ASSIGNMENT_REGEX + ")* *");
+    private static final String CANONICALIZE_PREFIX = "!canonicalize";
+    private static final Pattern CANONICALIZE = Pattern.compile(CANONICALIZE_PREFIX + " *");
+
+    private Optional<Expression> currentExpression = Optional.empty();
+    private final DerivativeCache derivatives = new DerivativeCache(DerivativeCache.DEFAULT_CAPACITY);
+
+    // Abstraction Function
+    //   represents a session whose current expression is
+    //   currentExpression.get(), or that has none yet if it is empty;
+    //   derivatives holds derivatives of subtrees of the expressions
+    //   derived from the last one entered
+    //
+    // Representation Invariant
+    //   - currentExpression is not null
+    //
+    // Safety From Exposure
+    //   - all fields are private; derivatives is never returned, and
+    //     expressions are immutable
+
+    private void checkRep() {
+        assert currentExpression != null;
+    }
+    /**
+     * Runs one command, as typed at the console of Main:
+     *   !d/d v           differentiates the current expression by v, which
+     *                    becomes the current expression
+     *   !simplify v=n .. substitutes into the current expression, which
+     *                    doesn't change
+     *   !canonicalize    collects the like terms of the current expression,
+     *                    as Commands.canonicalize; the result becomes the
+     *                    current expression
+     *   anything else    is parsed as the new current expression
+     * @param input a nonempty command
+     * @return the text to show for it: the resulting expression, or a
+     *         description of what went wrong
+     */
+    public String execute(String input) {
+        assert input != null && !input.isEmpty();
+        try {
+            final Expression output;
+
+            if (input.startsWith(DIFFERENTIATE_PREFIX)) {
+                final String variable = parseDifferentiate(input);
+                output = derivatives.differentiate(currentExpression.get(), variable);
+                currentExpression = Optional.of(output);
+            } else if (input.startsWith(SIMPLIFY_PREFIX)) {
+                final Map<String,Double> environment = parseSimplify(input);
+                output = Commands.simplify(currentExpression.get(), environment);
+                // ... but don't change currentExpression
+            } else if (input.startsWith(CANONICALIZE_PREFIX)) {
+                parseCanonicalize(input);
+                output = Commands.canonicalize(currentExpression.get());
+                currentExpression = Optional.of(output);
+            } else {
+                output = Expression.parse(input);
+                currentExpression = Optional.of(output);
+                derivatives.clear();
+            }
+            checkRep();
+            return output.toString();
+        } catch (NoSuchElementException nse) {
+            // currentExpression was empty
+            return "must enter an expression before using this command";
+        } catch (RuntimeException re) {
+            return re.getClass().getName() + ": " + re.getMessage();
+        }
+    }
+    /** @return the current expression, if any */
+    public Optional<Expression> currentExpression() {
+        return currentExpression;
+    }
+
+    private static String parseDifferentiate(final String input) {
+        final Matcher commandMatcher = DIFFERENTIATE.matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new Main.CommandSyntaxException("usage: !d/d must be followed by a variable name");
+        }
+
+        final String variable = commandMatcher.group(1);
+        return variable;
+    }
+    private static void parseCanonicalize(final String input) {
+        if (!CANONICALIZE.matcher(input).matches()) {
+            throw new Main.CommandSyntaxException("usage: !canonicalize takes no arguments");
+        }
+    }
+    private static Map<String,Double> parseSimplify(final String input) {
+        final Matcher commandMatcher = SIMPLIFY.matcher(input);
+        if (!commandMatcher.matches()) {
+            throw new Main.CommandSyntaxException("usage: !simplify var1=val1 var2=val2 ...");
+        }
+
+        final Map<String,Double> environment = new HashMap<>();
+        final Matcher argumentMatcher = ASSIGNMENT.matcher(input);
+        while (argumentMatcher.find()) {
+            final String variable = argumentMatcher.group(1);
+            final double value = Double.valueOf(argumentMatcher.group(2));
+            environment.put(variable, value);
+        }
+        return environment;
+    }
+}
@@ -0,0 +1,393 @@
+package expressivo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An expression lowered to postfix instructions for a stack machine, with
+ * its variables resolved to slot indices.
+ *
+ * A program is both the input of the bytecode generator and the evaluator
+ * used for expressions too large to compile to a JVM method. It can also
+ * evaluate a whole batch of rows at once, one instruction at a time over
+ * columns of values, with the kernels of LaneKernels, and compute the
+ * gradient of the expression by reverse-mode automatic differentiation, or
+ * one directional derivative over dual numbers.
+ */
+final class StackProgram implements Evaluator {
+    /** Push constants[operand] */
+    static final int CONST = 0;
+    /** Push slots[operand] */
+    static final int LOAD = 1;
+    /** Pop two numbers, push their sum */
+    static final int ADD = 2;
+    /** Pop two numbers, push their product */
+    static final int MUL = 3;
+    private static final int OP_BITS = 2;
+    private static final int OP_MASK = (1 << OP_BITS) - 1;
+    /** Rows evaluated together, few enough for the stack columns to stay in cache */
+    private static final int BLOCK_ROWS = 1024;
+
+    private final int[] code;
+    private final double[] constants;
+    private final int maxDepth;
+    private final int[] leftOperands;
+
+    // Abstraction Function
+    //   represents the postfix program whose i-th instruction is
+    //   op(code[i]) applied to operand(code[i])
+    //   the operands of an ADD or MUL at i are the results of instructions
+    //   leftOperands[i] and i - 1
+    //
+    // Representation Invariant
+    //   - the program leaves exactly one number on the stack, and never
+    //     holds more than maxDepth >= 1
+    //   - CONST operands are indices of constants
+    //   - leftOperands[i] is the last instruction of the left operand
+    //     of instruction i if it is ADD or MUL, -1 otherwise
+    //
+    // Safety From Exposure
+    //   - code, constants and leftOperands are private, final, never
+    //     changed after construction, and never returned
+
+    private StackProgram(int[] code, double[] constants, int maxDepth) {
+        this.code = code;
+        this.constants = constants;
+        this.maxDepth = maxDepth;
+        // the right operand of an operation ends just before it, and the
+        // left operand just before the right one starts
+        this.leftOperands = new int[code.length];
+        final int[] starts = new int[maxDepth];
+        int top = -1;
+        for (int i = 0; i < code.length; i++) {
+            if (op(i) <= LOAD) {
+                leftOperands[i] = -1;
+                starts[++top] = i;
+            } else {
+                leftOperands[i] = starts[top] - 1;
+                top--;
+            }
+        }
+    }
+    /**
+     * @param expr expression to lower
+     * @param slots maps variables to slot indices; variables of expr that
+     *        are missing are added with the next free index if grow is true
+     * @param grow whether missing variables may be added to slots
+     * @return the program computing expr
+     * @throws IllegalArgumentException if expr has a variable not in slots
+     *         and grow is false
+     */
+    static StackProgram lower(Expression expr, Map<String, Integer> slots, boolean grow) {
+        Lowering lowering = new Lowering(slots, grow);
+        Traversal.fold(expr, lowering);
+        return lowering.toProgram();
+    }
+    /** @return number of instructions */
+    int length() {
+        return code.length;
+    }
+    /** @return operation of instruction i, one of CONST, LOAD, ADD, MUL */
+    int op(int i) {
+        return code[i] & OP_MASK;
+    }
+    /** @return operand of instruction i, if it is CONST or LOAD */
+    int operand(int i) {
+        return code[i] >>> OP_BITS;
+    }
+    /** @return constant number i */
+    double constant(int i) {
+        return constants[i];
+    }
+    /** @return the most numbers on the stack at once */
+    int maxDepth() {
+        return maxDepth;
+    }
+    @Override public double eval(double[] slots) {
+        final double[] stack = new double[maxDepth];
+        int top = -1;
+        for (int instruction : code) {
+            switch (instruction & OP_MASK) {
+            case CONST:
+                stack[++top] = constants[instruction >>> OP_BITS];
+                break;
+            case LOAD:
+                stack[++top] = slots[instruction >>> OP_BITS];
+                break;
+            case ADD:
+                stack[top - 1] += stack[top];
+                top--;
+                break;
+            default:
+                stack[top - 1] *= stack[top];
+                top--;
+                break;
+            }
+        }
+        return stack[0];
+    }
+    /**
+     * Computes the value of this program and its partial derivatives with
+     * respect to every slot, with one forward and one backward sweep over
+     * the instructions, whatever the number of slots
+     * @param slots the value of each variable, at the index of its slot
+     * @param gradient gradient[s] is increased by the partial derivative of
+     *        this with respect to the variable in slot s, for every slot
+     *        this reads
+     * @return the value of this program
+     */
+    double gradient(double[] slots, double[] gradient) {
+        final int length = code.length;
+        final double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            final int instruction = code[i];
+            switch (instruction & OP_MASK) {
+            case CONST:
+                values[i] = constants[instruction >>> OP_BITS];
+                break;
+            case LOAD:
+                values[i] = slots[instruction >>> OP_BITS];
+                break;
+            case ADD:
+                values[i] = values[leftOperands[i]] + values[i - 1];
+                break;
+            default:
+                values[i] = values[leftOperands[i]] * values[i - 1];
+                break;
+            }
+        }
+        // adjoints[i] = d(result)/d(value of instruction i)
+        final double[] adjoints = new double[length];
+        adjoints[length - 1] = 1;
+        for (int i = length - 1; i >= 0; i--) {
+            final int instruction = code[i];
+            final double adjoint = adjoints[i];
+            switch (instruction & OP_MASK) {
+            case CONST:
+                break;
+            case LOAD:
+                gradient[instruction >>> OP_BITS] += adjoint;
+                break;
+            case ADD:
+                adjoints[leftOperands[i]] += adjoint;
+                adjoints[i - 1] += adjoint;
+                break;
+            default:
+                // d(u*v) = v*du + u*dv
+                final int left = leftOperands[i];
+                adjoints[left] += adjoint * values[i - 1];
+                adjoints[i - 1] += adjoint * values[left];
+                break;
+            }
+        }
+        return values[length - 1];
+    }
+    /**
+     * Evaluates this program over dual numbers, value + tangent * e with
+     * e * e = 0, giving its value and its derivative along a direction
+     * @param slots the value of each variable, at the index of its slot
+     * @param direction the tangent of each variable, at the index of its slot
+     * @param values stack of values, values.length >= maxDepth()
+     * @param tangents stack of tangents, tangents.length >= maxDepth();
+     *        receives the derivative of this along direction in tangents[0]
+     * @return the value of this program
+     */
+    double dual(double[] slots, double[] direction, double[] values, double[] tangents) {
+        int top = -1;
+        for (int instruction : code) {
+            switch (instruction & OP_MASK) {
+            case CONST:
+                values[++top] = constants[instruction >>> OP_BITS];
+                tangents[top] = 0;
+                break;
+            case LOAD:
+                values[++top] = slots[instruction >>> OP_BITS];
+                tangents[top] = direction[instruction >>> OP_BITS];
+                break;
+            case ADD:
+                values[top - 1] += values[top];
+                tangents[top - 1] += tangents[top];
+                top--;
+                break;
+            default:
+                // (u + u'e)(v + v'e) = uv + (u'v + uv')e
+                tangents[top - 1] = tangents[top - 1] * values[top]
+                        + values[top - 1] * tangents[top];
+                values[top - 1] *= values[top];
+                top--;
+                break;
+            }
+        }
+        return values[0];
+    }
+    /**
+     * Evaluates this program for many rows of values
+     * @param columns columns[slot][row] is the value of the variable in slot
+     *        for that row; every column read by this has at least rows values
+     * @param out receives the value of this for each row, out.length >= rows
+     * @param rows number of rows to evaluate
+     */
+    void evalColumns(double[][] columns, double[] out, int rows) {
+        final double[][] stack = new double[maxDepth][Math.min(rows, BLOCK_ROWS)];
+        for (int start = 0; start < rows; start += BLOCK_ROWS) {
+            final int n = Math.min(BLOCK_ROWS, rows - start);
+            int top = -1;
+            for (int pc = 0; pc < code.length; pc++) {
+                final int op = op(pc);
+                if (op == ADD || op == MUL) {
+                    combine(op, stack[top - 1], stack[top], 0, n);
+                    top--;
+                } else if (top >= 0 && LaneKernels.ENABLED && isAddProduct(pc)) {
+                    // two operands, multiplied, added to the top of the stack
+                    addProduct(stack[top], pc, columns, start, n);
+                    pc += 3;
+                } else if (top >= 0 && pc + 1 < code.length && op(pc + 1) >= ADD) {
+                    // an operand followed by an operation is combined into
+                    // the top of the stack directly, without being pushed
+                    if (op == CONST) {
+                        combine(op(pc + 1), stack[top], constants[operand(pc)], n);
+                    } else {
+                        combine(op(pc + 1), stack[top], columns[operand(pc)], start, n);
+                    }
+                    pc++;
+                } else if (op == CONST) {
+                    Arrays.fill(stack[++top], 0, n, constants[operand(pc)]);
+                } else {
+                    System.arraycopy(columns[operand(pc)], start, stack[++top], 0, n);
+                }
+            }
+            System.arraycopy(stack[0], 0, out, start, n);
+        }
+    }
+    /** @return whether instructions pc .. pc+3 are operand, operand, MUL, ADD */
+    private boolean isAddProduct(int pc) {
+        return pc + 3 < code.length
+                && op(pc) <= LOAD && op(pc + 1) <= LOAD
+                && op(pc + 2) == MUL && op(pc + 3) == ADD;
+    }
+    /** target[i] += product of the operands of instructions pc and pc+1, in row from + i */
+    private void addProduct(double[] target, int pc, double[][] columns, int from, int n) {
+        final int left = operand(pc);
+        final int right = operand(pc + 1);
+        if (op(pc) == LOAD && op(pc + 1) == LOAD) {
+            LaneKernels.addProduct(target, columns[left], columns[right], from, n);
+        } else if (op(pc) == LOAD) {
+            LaneKernels.addProduct(target, columns[left], constants[right], from, n);
+        } else if (op(pc + 1) == LOAD) {
+            LaneKernels.addProduct(target, columns[right], constants[left], from, n);
+        } else {
+            combine(ADD, target, constants[left] * constants[right], n);
+        }
+    }
+    /** target[i] = target[i] op source[from + i] for 0 <= i < n */
+    private static void combine(int op, double[] target, double[] source, int from, int n) {
+        if (LaneKernels.ENABLED) {
+            if (op == ADD) {
+                LaneKernels.add(target, source, from, n);
+            } else {
+                LaneKernels.multiply(target, source, from, n);
+            }
+        } else if (op == ADD) {
+            for (int i = 0; i < n; i++) {
+                target[i] += source[from + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                target[i] *= source[from + i];
+            }
+        }
+    }
+    /** target[i] = target[i] op num for 0 <= i < n */
+    private static void combine(int op, double[] target, double num, int n) {
+        if (LaneKernels.ENABLED) {
+            if (op == ADD) {
+                LaneKernels.add(target, num, n);
+            } else {
+                LaneKernels.multiply(target, num, n);
+            }
+        } else if (op == ADD) {
+            for (int i = 0; i < n; i++) {
+                target[i] += num;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                target[i] *= num;
+            }
+        }
+    }
+
+    /** Builds the instructions of a program, operands before their operation; the result is meaningless */
+    private static final class Lowering implements Traversal.Fold<Boolean> {
+        private final Map<String, Integer> slots;
+        private final boolean grow;
+        private final Map<Long, Integer> constantIndices = new HashMap<>();
+        private int[] code = new int[16];
+        private int length = 0;
+        private double[] constants = new double[4];
+        private int constantCount = 0;
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        private Lowering(Map<String, Integer> slots, boolean grow) {
+            this.slots = slots;
+            this.grow = grow;
+        }
+        @Override public Boolean leaf(Expression leaf) {
+            if (leaf instanceof Value) {
+                push(CONST, constantIndex(((Value) leaf).num()));
+            } else {
+                push(LOAD, slotIndex(leaf.toString()));
+            }
+            return true;
+        }
+        @Override public Boolean combine(Expression node, int i, Boolean soFar, Boolean operand) {
+            if (i > 0) {
+                pop((node instanceof Addition) ? ADD : MUL);
+            }
+            return true;
+        }
+        private int constantIndex(double num) {
+            Integer index = constantIndices.get(Double.doubleToLongBits(num));
+            if (index != null) {
+                return index;
+            }
+            if (constantCount == constants.length) {
+                constants = Arrays.copyOf(constants, 2 * constantCount);
+            }
+            constants[constantCount] = num;
+            constantIndices.put(Double.doubleToLongBits(num), constantCount);
+            return constantCount++;
+        }
+        private int slotIndex(String variable) {
+            Integer index = slots.get(variable);
+            if (index != null) {
+                return index;
+            }
+            if (!grow) {
+                throw new IllegalArgumentException("no slot for variable " + variable);
+            }
+            slots.put(variable, slots.size());
+            return slots.size() - 1;
+        }
+        private void push(int op, int operand) {
+            append(op | (operand << OP_BITS));
+            maxDepth = Math.max(maxDepth, ++depth);
+        }
+        private void pop(int op) {
+            append(op);
+            depth--;
+        }
+        private void append(int instruction) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, 2 * length);
+            }
+            code[length++] = instruction;
+        }
+        private StackProgram toProgram() {
+            assert depth == 1;
+            return new StackProgram(Arrays.copyOf(code, length),
+                    Arrays.copyOf(constants, constantCount), maxDepth);
+        }
+    }
+}
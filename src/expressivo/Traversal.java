@@ -0,0 +1,360 @@
+package expressivo;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Walks expressions with an explicit stack instead of recursion, so that the
+ * depth of an expression is limited by the heap rather than by the thread's
+ * stack.
+ *
+ * fold() visits an expression in post-order, combining the results of the
+ * operands of each sum and product from left to right, as a recursive method
+ * looping over the operands would. Every operation of the variants that
+ * walks a whole expression is a Fold, defined here, as are the other walks
+ * of the package (lowering, interning, collecting variables).
+ */
+final class Traversal {
+    private Traversal() {
+        // not instantiable
+    }
+
+    /**
+     * A computation over an expression from the results of its operands.
+     * The results of leaves, of shortcut() and of finish() must not be null.
+     * @param <R> type of the result
+     */
+    interface Fold<R> {
+        /** @return the result for a Value or Variable */
+        R leaf(Expression leaf);
+        /**
+         * @param node a sum or product about to be visited
+         * @return the result for node without visiting its operands, or
+         *         null to visit them
+         */
+        default R shortcut(Expression node) {
+            return null;
+        }
+        /** Called before operand i of node is visited */
+        default void before(Expression node, int i) {
+            // nothing by default
+        }
+        /**
+         * @param node a sum or product
+         * @param i index of an operand of node
+         * @param soFar what combine returned for operand i-1, null if i == 0
+         * @param operand the result for operand i
+         * @return the result for operands 0..i of node
+         */
+        R combine(Expression node, int i, R soFar, R operand);
+        /**
+         * @param node a sum or product
+         * @param soFar what combine returned for its last operand
+         * @return the result for node
+         */
+        default R finish(Expression node, R soFar) {
+            return soFar;
+        }
+    }
+
+    /** @return the number of operands of a sum or product, 0 for a leaf */
+    static int operandCount(Expression node) {
+        if (node instanceof Addition) {
+            return ((Addition) node).termCount();
+        } else if (node instanceof Multiplication) {
+            return ((Multiplication) node).factorCount();
+        }
+        return 0;
+    }
+    /** @return operand i of a sum or product, 0 <= i < operandCount(node) */
+    static Expression operand(Expression node, int i) {
+        return (node instanceof Addition)
+                ? ((Addition) node).term(i) : ((Multiplication) node).factor(i);
+    }
+    /**
+     * @param root expression to walk
+     * @param fold computation to apply
+     * @return the result of fold for root
+     */
+    @SuppressWarnings("unchecked")
+    static <R> R fold(Expression root, Fold<R> fold) {
+        R result = enter(root, fold);
+        if (result != null) {
+            return result;
+        }
+        // frame k: node nodes[k], whose operands before next[k] are done,
+        // with soFar[k] the result for them
+        Expression[] nodes = new Expression[16];
+        int[] next = new int[16];
+        Object[] soFar = new Object[16];
+        nodes[0] = root;
+        int top = 0;
+        fold.before(root, 0);
+        while (true) {
+            final Expression node = nodes[top];
+            final int i = next[top];
+            if (result == null) {
+                // descend into operand i
+                final Expression operand = operand(node, i);
+                result = enter(operand, fold);
+                if (result == null) {
+                    if (++top == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, 2 * top);
+                        next = Arrays.copyOf(next, 2 * top);
+                        soFar = Arrays.copyOf(soFar, 2 * top);
+                    }
+                    nodes[top] = operand;
+                    next[top] = 0;
+                    soFar[top] = null;
+                    fold.before(operand, 0);
+                }
+                continue;
+            }
+            // operand i is done
+            final R combined = fold.combine(node, i, (R) soFar[top], result);
+            if (i + 1 < operandCount(node)) {
+                soFar[top] = combined;
+                next[top] = i + 1;
+                fold.before(node, i + 1);
+                result = null;
+                continue;
+            }
+            result = fold.finish(node, combined);
+            assert result != null;
+            nodes[top] = null;
+            soFar[top] = null;
+            if (top-- == 0) {
+                return result;
+            }
+        }
+    }
+    /** @return the result for a leaf or a shortcut node, or null if node's operands must be visited */
+    private static <R> R enter(Expression node, Fold<R> fold) {
+        if (node instanceof Addition || node instanceof Multiplication) {
+            return fold.shortcut(node);
+        }
+        final R result = fold.leaf(node);
+        assert result != null;
+        return result;
+    }
+
+    /**
+     * Compares two expressions as Expression.equals does, with an explicit stack
+     * @param a an expression
+     * @param b an expression
+     * @return true if a equals b
+     */
+    static boolean equal(Expression a, Expression b) {
+        return compare(a, b, false);
+    }
+    /**
+     * Compares two expressions exactly: the same variants with the same
+     * operands, in the same order and grouping, and Values with the same
+     * double, not only the same 5 decimal places
+     * @param a an expression
+     * @param b an expression
+     * @return true if a and b are identical; if so, they are also equal
+     */
+    static boolean identical(Expression a, Expression b) {
+        return compare(a, b, true);
+    }
+    /** @return identical(a, b) if exact, else equal(a, b) */
+    private static boolean compare(Expression a, Expression b, boolean exact) {
+        Expression[] left = new Expression[16];
+        Expression[] right = new Expression[16];
+        left[0] = a;
+        right[0] = b;
+        int size = 1;
+        while (size > 0) {
+            size--;
+            final Expression x = left[size];
+            final Expression y = right[size];
+            if (x == y) {
+                continue;
+            }
+            if (!exact && x instanceof Addition && y instanceof Addition) {
+                // sums are equal whatever their grouping, so compare their
+                // flattened terms
+                final Addition xSum = (Addition) x;
+                final Addition ySum = (Addition) y;
+                if (xSum.hashCode() != ySum.hashCode() || xSum.size() != ySum.size()) {
+                    return false;
+                }
+                if (xSum.termCount() == ySum.termCount()
+                        && xSum.terms().sameItems(xSum.termCount(), ySum.terms())) {
+                    continue;
+                }
+                final Expression[] xTerms = xSum.flatTerms();
+                final Expression[] yTerms = ySum.flatTerms();
+                if (size + xTerms.length > left.length) {
+                    left = Arrays.copyOf(left, 2 * (size + xTerms.length));
+                    right = Arrays.copyOf(right, 2 * (size + xTerms.length));
+                }
+                // pushed last to first, so terms are compared left to right
+                for (int i = xTerms.length - 1; i >= 0; i--) {
+                    left[size] = xTerms[i];
+                    right[size] = yTerms[i];
+                    size++;
+                }
+                continue;
+            }
+            final int count = operandCount(x);
+            if (count == 0 || count != operandCount(y)) {
+                if (exact ? !sameLeaf(x, y) : !x.equals(y)) {
+                    return false;
+                }
+                continue;
+            }
+            if (x.getClass() != y.getClass() || x.hashCode() != y.hashCode()
+                    || (exact && Metadata.constants(x) != Metadata.constants(y))) {
+                return false;
+            }
+            // products, or identical sums: their grouping matters, so
+            // compare operand by operand
+            if (x instanceof Addition
+                    ? ((Addition) x).terms().sameItems(count, ((Addition) y).terms())
+                    : ((Multiplication) x).factors().sameItems(count, ((Multiplication) y).factors())) {
+                continue;
+            }
+            if (size + count > left.length) {
+                left = Arrays.copyOf(left, 2 * (size + count));
+                right = Arrays.copyOf(right, 2 * (size + count));
+            }
+            // pushed last to first, so operands are compared left to right
+            for (int i = count - 1; i >= 0; i--) {
+                left[size] = operand(x, i);
+                right[size] = operand(y, i);
+                size++;
+            }
+        }
+        return true;
+    }
+    /** @return true if x and y are the same variable, or Values of the same double */
+    private static boolean sameLeaf(Expression x, Expression y) {
+        if (x instanceof Value && y instanceof Value) {
+            return Double.doubleToLongBits(((Value) x).num())
+                    == Double.doubleToLongBits(((Value) y).num());
+        }
+        return x instanceof Variable && x.equals(y);
+    }
+
+    /** The derivative of an expression with respect to a variable */
+    static class Differentiation implements Fold<Expression> {
+        private final String variable;
+        private final long bit;
+
+        Differentiation(String variable) {
+            this.variable = variable;
+            this.bit = Metadata.bit(variable);
+        }
+        @Override public Expression leaf(Expression leaf) {
+            return leaf.differentiate(variable);
+        }
+        @Override public Expression shortcut(Expression node) {
+            return ((Metadata.variables(node) & bit) == 0) ? Value.ZERO : null;
+        }
+        @Override public Expression combine(Expression node, int i,
+                Expression soFar, Expression operand) {
+            if (i == 0) {
+                return operand;
+            }
+            if (node instanceof Addition) {
+                // d(u + v)/dx = du/dx + dv/dx
+                // where u = the first i terms, v = term i
+                return soFar.addExpr(operand);
+            }
+            // d(u*v)/dx = v*(du/dx) + u*(dv/dx)
+            // where u = the first i factors, v = factor i
+            final Multiplication product = (Multiplication) node;
+            return product.factor(i).multiplyExpr(soFar)
+                    .addExpr(product.prefix(i).multiplyExpr(operand));
+        }
+    }
+
+    /**
+     * An expression with the bound variables of an environment replaced by
+     * their values; sums and products without a bound variable are kept as
+     * they are, not rebuilt with addExpr and multiplyExpr
+     */
+    static final class Substitution implements Fold<Expression> {
+        private final Environment environment;
+        private final long bound;
+
+        Substitution(Environment environment) {
+            this.environment = environment;
+            this.bound = environment.boundVariables();
+        }
+        @Override public Expression leaf(Expression leaf) {
+            return leaf.substitute(environment);
+        }
+        @Override public Expression shortcut(Expression node) {
+            return ((Metadata.variables(node) & bound) == 0) ? node : null;
+        }
+        @Override public Expression combine(Expression node, int i,
+                Expression soFar, Expression operand) {
+            if (i == 0) {
+                return operand;
+            }
+            return (node instanceof Addition)
+                    ? soFar.addExpr(operand) : soFar.multiplyExpr(operand);
+        }
+    }
+
+    /** Writes the string representation of an expression; the result is meaningless */
+    static final class Appending implements Fold<Boolean> {
+        private final Appendable out;
+
+        /** @param out destination; IOExceptions are thrown wrapped in UncheckedIOException */
+        Appending(Appendable out) {
+            this.out = out;
+        }
+        @Override public Boolean leaf(Expression leaf) {
+            try {
+                leaf.appendTo(out);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            return true;
+        }
+        @Override public void before(Expression node, int i) {
+            try {
+                if (node instanceof Addition) {
+                    if (i > 0) {
+                        out.append(" + ");
+                    }
+                } else if (i > 0) {
+                    out.append(")*(");
+                } else {
+                    // ((f0)*(f1))*(f2) opens one parenthesis per product
+                    for (int k = 1; k < operandCount(node); k++) {
+                        out.append('(');
+                    }
+                }
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        }
+        @Override public Boolean combine(Expression node, int i, Boolean soFar, Boolean operand) {
+            if (i > 0 && node instanceof Multiplication) {
+                try {
+                    out.append(')');
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+            return true;
+        }
+        /**
+         * Writes expr to the destination of this
+         * @throws IOException if the destination throws one
+         */
+        void render(Expression expr) throws IOException {
+            try {
+                fold(expr, this);
+            } catch (UncheckedIOException uioe) {
+                throw uioe.getCause();
+            }
+        }
+    }
+}
@@ -1,19 +1,30 @@
 package expressivo;
 
-import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.util.Map;
+import java.io.IOException;
 
 /**
  * An immutable type representing a non-negative number in an expression
+ * 
+ * A Value holds a double, and is only truncated to 5 decimal places when
+ * printed or compared.
  */
 public class Value implements Expression {
+    /** Shared instances of the numbers the variants use the most */
+    static final Value ZERO = new Value(0);
+    static final Value ONE = new Value(1);
+    static final Value TWO = new Value(2);
+
     private final double num;
+    private final double truncated;
+    private final int hash;
     // Abstraction Function:
     //   represents a nonnegative decimal number as an expression
     //   
     // Representation Invariant:
     //   0 <= num <= Double.MAX_VALUE
+    //   truncated is num truncated to 5 decimal places, the value
+    //     that toString() prints and hashCode() hashes
+    //   hash is the hash code of truncated
     //
     // Safety From Exposure
     //   - num is a private and immutable reference
@@ -25,20 +36,44 @@ public class Value implements Expression {
     }
     public Value(double num) {
         this.num = num;
+        this.truncated = Decimals.truncate(num);
+        this.hash = hash(this.truncated);
 
         checkRep();
     }
+    /**
+     * @param num 0 <= num <= Double.MAX_VALUE
+     * @return a Value equal to new Value(num); the canonical one if
+     *         Interner is enabled
+     */
+    static Value of(double num) {
+        Value value = new Value(num);
+        return Interner.isEnabled() ? Interner.canonical(value) : value;
+    }
+    /** @return the number this Value was created with */
+    double num() {
+        return num;
+    }
+    private static int hash(double preciseNum) {
+        final int prime = 37;
+        int result = 1;
+        long numLong = Double.doubleToLongBits(preciseNum);
+        int numHash = (int) (numLong ^ (numLong >>> 32));
+        
+        result = prime*result + numHash;
+        return result;
+    }
     @Override public Expression addExpr(Expression e) {
         if (e.equals(this)) {
             double newNum = this.num * 2;
             checkRep();
             
             if (Double.isInfinite(newNum)) {
-                return new Value(Double.MAX_VALUE);
+                return Value.of(Double.MAX_VALUE);
             }
-            return new Value(newNum);
+            return Value.of(newNum);
         }
-        Value zero = new Value(0.0);
+        Value zero = ZERO;
         if (this.equals(zero)) {
             return e;
         }
@@ -49,8 +84,8 @@ public class Value implements Expression {
         return e.addConstant(num);
     }
     @Override public Expression multiplyExpr(Expression e) {
-        Value zero = new Value(0);
-        Value one = new Value(1);
+        Value zero = ZERO;
+        Value one = ONE;
         if (this.equals(zero) || e.equals(zero)) {
             return zero;
         }
@@ -66,24 +101,24 @@ public class Value implements Expression {
     }
     @Override public Expression addVariable(String variable) {
         assert variable != null && variable != "";
-        if (this.equals(new Value(0))) {
-            return new Variable(variable);
+        if (this.equals(ZERO)) {
+            return Variable.of(variable);
         }
         checkRep();
-        return new Addition(new Variable(variable), this);
+        return Addition.of(Variable.of(variable), this);
     }
     @Override public Expression multiplyVariable(String variable) {
         assert variable != null && variable != "";
-        Value zero = new Value(0);
+        Value zero = ZERO;
         if (this.equals(zero)) {
             return zero;
         }
-        if (this.equals(new Value(1))) {
-            return new Variable(variable);
+        if (this.equals(ONE)) {
+            return Variable.of(variable);
         }
 
         checkRep();
-        return new Multiplication(new Variable(variable), this);
+        return Multiplication.of(Variable.of(variable), this);
     }
     @Override public Expression addConstant(double num) {
         double numTruncate = Math.floor(num*100000.0)/100000.0;
@@ -91,10 +126,10 @@ public class Value implements Expression {
         checkRep();
         
         if (Double.isInfinite(newNum)) {
-            return new Value(Double.MAX_VALUE);
+            return Value.of(Double.MAX_VALUE);
         }
 
-        return new Value(newNum);
+        return Value.of(newNum);
     }
     @Override public Expression appendCoefficient(double num) {    
         double numTruncate = Math.floor(num*100000.0)/100000.0;    
@@ -102,26 +137,24 @@ public class Value implements Expression {
         checkRep();
         
         if (Double.isInfinite(newNum)) {
-            return new Value(Double.MAX_VALUE);
+            return Value.of(Double.MAX_VALUE);
         }
 
-        return new Value(newNum);
+        return Value.of(newNum);
     }
     @Override public Expression differentiate(String variable) {
         assert variable != null && variable != "";
-        return new Value(0);
+        return ZERO;
     }
-    @Override public Expression substitute(Map<String, Double> environment) {
+    @Override public Expression substitute(Environment environment) {
         assert environment != null;
         return this;
     }
     @Override public String toString() {
-        DecimalFormat myFormatter = new DecimalFormat("###.#####");
-        myFormatter.setRoundingMode(RoundingMode.DOWN);
-        String output = myFormatter.format(this.num);
-
-        checkRep();
-        return output;
+        return Decimals.format(this.num);
+    }
+    @Override public void appendTo(Appendable out) throws IOException {
+        Decimals.appendTo(this.num, out);
     }
     /** Checks if two Values are equal, correct to 5 decimal places */
     @Override public boolean equals(Object thatObject) {
@@ -132,22 +165,12 @@ public class Value implements Expression {
             return false;
         }
         Value thatValue = (Value) thatObject;
-        double thatNum = Double.parseDouble(thatValue.toString());
         final double EPSILON = 0.00001;
 
         checkRep();
-        return Math.abs(this.num - thatNum) < EPSILON;
+        return Math.abs(this.num - thatValue.truncated) < EPSILON;
     }
     @Override public int hashCode() {
-        double preciseNum = Double.parseDouble(this.toString());
-        final int prime = 37;
-        int result = 1;
-        long numLong = Double.doubleToLongBits(preciseNum);
-        int numHash = (int) (numLong ^ (numLong >>> 32));
-        
-        result = prime*result + numHash;
-        
-        checkRep();
-        return result;
+        return hash;
     }
 }
@@ -1,6 +1,6 @@
 package expressivo;
 
-import java.util.Map;
+import java.io.IOException;
 
 /**
  * An immutable type representing a named variable in an expression
@@ -32,19 +32,28 @@ public class Variable implements Expression {
         this.id = id;
         checkRep();
     }
+    /**
+     * @param id nonempty case-sensitive string of letters, a-zA-Z
+     * @return a Variable equal to new Variable(id); the canonical one if
+     *         Interner is enabled
+     */
+    static Variable of(String id) {
+        Variable variable = new Variable(id);
+        return Interner.isEnabled() ? Interner.canonical(variable) : variable;
+    }
     @Override public Expression addExpr(Expression e) {
-        if (e.equals(new Value(0))) {
+        if (e.equals(Value.ZERO)) {
             return this;
         }
         checkRep();
         return e.addVariable(id);
     }
     @Override public Expression multiplyExpr(Expression e) {
-        Value zero = new Value(0);
+        Value zero = Value.ZERO;
         if (e.equals(zero)) {
             return zero;
         }
-        if (e.equals(new Value(1))) {
+        if (e.equals(Value.ONE)) {
             return this;
         }
         checkRep();
@@ -54,56 +63,57 @@ public class Variable implements Expression {
     @Override public Expression addVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Addition(new Variable(variable), this);
+        return Addition.of(Variable.of(variable), this);
     }
     @Override public Expression multiplyVariable(String variable) {
         assert variable != null && variable != "";
         
-        return new Multiplication(new Variable(variable), this);
+        return Multiplication.of(Variable.of(variable), this);
     }
     @Override public Expression addConstant(double num) {
         assert num >= 0 && Double.isFinite(num);
         
-        Value valNum = new Value(num);
-        if (valNum.equals(new Value(0))) {
+        Value valNum = Value.of(num);
+        if (valNum.equals(Value.ZERO)) {
             return this;
         }
-        return new Addition(valNum, this);
+        return Addition.of(valNum, this);
     }
     @Override public Expression appendCoefficient(double num) {
         assert num >= 0 && Double.isFinite(num);
         
-        Value valNum = new Value(num);
-        Value zero = new Value(0);
+        Value valNum = Value.of(num);
+        Value zero = Value.ZERO;
         if (valNum.equals(zero)) {
-            return new Value(0);
+            return Value.ZERO;
         }
-        if (valNum.equals(new Value(1))) {
+        if (valNum.equals(Value.ONE)) {
             return this;
         }
-        return new Multiplication(new Value(num), this);
+        return Multiplication.of(Value.of(num), this);
     }
     @Override public Expression differentiate(String variable) {
         assert variable != null && variable != "";
         // dx/dx = 1
         // dc/dx = 0 for all variables, c != x
-        return this.equals(new Variable(variable)) ? 
-                new Value(1) : new Value(0);
+        return this.equals(Variable.of(variable)) ? 
+                Value.ONE : Value.ZERO;
     }
-    @Override public Expression substitute(Map<String,Double> environment) {
+    @Override public Expression substitute(Environment environment) {
         assert environment != null;
         
-        Double num = environment.get(this.id);
-        if (num == null) {
+        double num = environment.valueOf(this.id);
+        if (Double.isNaN(num)) {
             return this;
         }
-        assert Double.isFinite(num) && num >= 0;
-        
-        return new Value((double)num);
+        return Value.of(num);
     }
     @Override public String toString() {
         return this.id;
     }
+    @Override public void appendTo(Appendable out) throws IOException {
+        out.append(this.id);
+    }
     @Override public boolean equals(Object thatObject) {
         if (thatObject == this) {
             return true;
@@ -0,0 +1,101 @@
+package expressivo.parser;
+
+import expressivo.Expression;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.LexerNoViableAltException;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+/**
+ * A reusable ANTLR lexer, token stream, parser and visitor for Expression.g4.
+ *
+ * Each thread owns one pipeline, which is pointed at new input with
+ * setInputStream/setTokenSource/setTokenStream instead of being rebuilt.
+ * Input is first parsed in SLL prediction mode with a bailing error strategy,
+ * which is enough for every valid expression in this grammar; only when that
+ * fails is the input parsed again in full LL mode, to report the error the
+ * way the default ANTLR pipeline would.
+ */
+public class ExpressionAntlrPipeline {
+    private static final ThreadLocal<ExpressionAntlrPipeline> PIPELINES =
+            ThreadLocal.withInitial(ExpressionAntlrPipeline::new);
+
+    private final ExpressionLexer lexer;
+    private final CommonTokenStream tokens;
+    private final ExpressionParser parser;
+    private final ExpressionMainVisitor visitor;
+    private final BailErrorStrategy bail = new BailErrorStrategy();
+    private final DefaultErrorStrategy recover = new DefaultErrorStrategy();
+
+    // Abstraction Function
+    //   represents the chain lexer -> tokens -> parser -> visitor that turns
+    //   the input last given to the lexer into an Expression
+    //
+    // Representation Invariant
+    //   - tokens reads from lexer, parser reads from tokens
+    //   - lexer and parser only have error listeners that throw
+    //     ParseCancellationException
+    //
+    // Safety From Exposure
+    //   - all fields are private and never returned
+    //
+    // Thread Safety Argument
+    //   - pipelines are confined to their thread by PIPELINES
+
+    private ExpressionAntlrPipeline() {
+        this.lexer = new ExpressionLexer(null);
+        this.lexer.removeErrorListeners();
+        this.lexer.reportErrorsAsExceptions();
+
+        this.tokens = new CommonTokenStream(lexer);
+        this.parser = new ExpressionParser(tokens);
+        this.parser.removeErrorListeners();
+        this.parser.reportErrorsAsExceptions();
+        this.parser.setBuildParseTree(true);
+
+        this.visitor = new ExpressionMainVisitor();
+    }
+    /**
+     * Parse an expression with the calling thread's pipeline.
+     * @param input expression to parse, as defined in Expression.g4
+     * @return expression AST for the input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(String input) {
+        assert input != null;
+        return PIPELINES.get().parseInput(input);
+    }
+    private Expression parseInput(String input) {
+        CharStream chars = CharStreams.fromString(input);
+        try {
+            return visitor.visit(parseTree(chars, PredictionMode.SLL));
+        } catch (ParseCancellationException sllFailure) {
+            if (sllFailure.getCause() instanceof LexerNoViableAltException) {
+                // the input has no valid tokenization, LL can't do better
+                throw new IllegalArgumentException(sllFailure.getMessage());
+            }
+        }
+        try {
+            return visitor.visit(parseTree(chars, PredictionMode.LL));
+        } catch (ParseCancellationException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /** Resets the pipeline to the start of chars and parses it in mode */
+    private ParseTree parseTree(CharStream chars, PredictionMode mode) {
+        // Lexer.setInputStream doesn't rewind its new input
+        chars.seek(0);
+        lexer.setInputStream(chars);
+        tokens.setTokenSource(lexer);
+        parser.setErrorHandler(mode == PredictionMode.SLL ? bail : recover);
+        parser.setTokenStream(tokens);
+        parser.getInterpreter().setPredictionMode(mode);
+        return parser.root();
+    }
+}
@@ -0,0 +1,217 @@
+package expressivo.parser;
+
+import expressivo.Expression;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A hand-written, single-pass parser for the language of Expression.g4.
+ *
+ * Tokens are read straight from the input and combined into Expression
+ * nodes by operator precedence:
+ *   * binds tighter than +, and both operators group from left to right.
+ * The operands of a chain of one operator are gathered first and combined
+ * once the chain ends, with Expression.sum or Expression.product.
+ * Pending operands and operators are kept on explicit stacks rather than
+ * in recursive calls, so deeply nested brackets need no thread stack.
+ * No token stream or parse tree is built. Chains are gathered the same way
+ * by ExpressionMainVisitor, so for every valid input both parsers return
+ * equal expressions.
+ */
+public class ExpressionFastParser {
+    /** Bottom of the operators pending inside a pair of brackets */
+    private static final char OPEN = '(';
+
+    private final CharSequence input;
+    private int pos;
+    private Expression[] operands = new Expression[16];
+    private int operandCount = 0;
+    private char[] operators = new char[16];
+    private int operatorCount = 0;
+    private int openBrackets = 0;
+
+    // Abstraction Function
+    //   represents the unparsed suffix input[pos..] of an expression,
+    //   after the operands operands[0..operandCount) and the operators
+    //   operators[0..operatorCount) still waiting to be combined, inside
+    //   openBrackets pairs of brackets not yet closed
+    //
+    // Representation Invariant
+    //   0 <= pos <= input.length()
+    //   operators are '+', '*' or OPEN; openBrackets is the number of OPEN
+    //   operators, and each '+' or '*' has its operands pending below it;
+    //   above each OPEN, and below the first, pending '+' operators are all
+    //   below pending '*' operators
+    //
+    // Safety From Exposure
+    //   - all fields are private
+    //   - input is never mutated by the parser; instances are confined
+    //     to the static parse method
+
+    private void checkRep() {
+        assert input != null;
+        assert 0 <= pos && pos <= input.length();
+        assert 0 <= openBrackets && openBrackets <= operatorCount;
+    }
+    private ExpressionFastParser(CharSequence input) {
+        this.input = input;
+        this.pos = 0;
+        checkRep();
+    }
+    /**
+     * Parse an expression.
+     * @param input expression to parse, as defined in Expression.g4
+     * @return expression AST for the input, equal to the one built by
+     *         ExpressionMainVisitor for the same input
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static Expression parse(CharSequence input) {
+        assert input != null;
+
+        return new ExpressionFastParser(input).parseInput();
+    }
+    /** Parses the whole input, alternating between operands and operators */
+    private Expression parseInput() {
+        while (true) {
+            // an operand, after any number of opening brackets
+            parsePrimary();
+            // operators, after any number of closing brackets
+            while (true) {
+                skipWhitespace();
+                if (pos == input.length()) {
+                    if (openBrackets > 0) {
+                        throw error("missing ')'");
+                    }
+                    reduce(OPEN);
+                    assert operandCount == 1 && operatorCount == 0;
+                    return operands[0];
+                }
+                final char c = input.charAt(pos);
+                if (c == '*' || c == '+') {
+                    // a run of c stays pending until an operator binding
+                    // less tightly, a closing bracket or the end
+                    reduce(c);
+                    pushOperator(c);
+                    pos++;
+                    break;
+                }
+                if (openBrackets == 0) {
+                    throw error("extraneous input");
+                }
+                if (c != ')') {
+                    throw error("missing ')'");
+                }
+                reduce(OPEN);
+                operatorCount--;
+                openBrackets--;
+                pos++;
+            }
+            checkRep();
+        }
+    }
+    /**
+     * Combines the pending operators that bind more tightly than op, from
+     * the top of the stack down to the innermost open bracket. Each run of
+     * the same operator is combined at once, by Expression.sum or
+     * Expression.product over all of its operands, so long chains are built
+     * in linear time.
+     */
+    private void reduce(char op) {
+        while (operatorCount > 0 && precedence(operators[operatorCount - 1]) > precedence(op)) {
+            final char top = operators[operatorCount - 1];
+            int run = 0;
+            while (operatorCount > 0 && operators[operatorCount - 1] == top) {
+                operatorCount--;
+                run++;
+            }
+            final int first = operandCount - run - 1;
+            final List<Expression> chain = Arrays.asList(operands).subList(first, operandCount);
+            final Expression combined = (top == '*')
+                    ? Expression.product(chain) : Expression.sum(chain);
+            Arrays.fill(operands, first + 1, operandCount, null);
+            operands[first] = combined;
+            operandCount = first + 1;
+        }
+    }
+    private static int precedence(char op) {
+        return (op == '*') ? 2 : (op == '+') ? 1 : 0;
+    }
+    private void pushOperator(char op) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, 2 * operatorCount);
+        }
+        operators[operatorCount++] = op;
+    }
+    private void pushOperand(Expression operand) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, 2 * operandCount);
+        }
+        operands[operandCount++] = operand;
+    }
+    /** Parses any opening brackets, then a number or a variable */
+    private void parsePrimary() {
+        while (true) {
+            skipWhitespace();
+            if (pos == input.length()) {
+                throw error("missing operand at end of input");
+            }
+            final char c = input.charAt(pos);
+            if (c != '(') {
+                break;
+            }
+            pushOperator(OPEN);
+            openBrackets++;
+            pos++;
+        }
+        final char c = input.charAt(pos);
+        if (isDigit(c)) {
+            final int start = pos;
+            while (pos < input.length() && isDigit(input.charAt(pos))) {
+                pos++;
+            }
+            if (pos + 1 < input.length() && input.charAt(pos) == '.'
+                    && isDigit(input.charAt(pos + 1))) {
+                pos++;
+                while (pos < input.length() && isDigit(input.charAt(pos))) {
+                    pos++;
+                }
+            }
+            String num = input.subSequence(start, pos).toString();
+
+            Expression empty = Expression.emptyExpression();
+            pushOperand(empty.addConstant(Double.parseDouble(num)));
+            return;
+        }
+        if (isLetter(c)) {
+            final int start = pos;
+            while (pos < input.length() && isLetter(input.charAt(pos))) {
+                pos++;
+            }
+            String id = input.subSequence(start, pos).toString();
+
+            Expression empty = Expression.emptyExpression();
+            pushOperand(empty.addVariable(id));
+            return;
+        }
+        throw error("unexpected input");
+    }
+    private void skipWhitespace() {
+        while (pos < input.length()
+                && (input.charAt(pos) == ' ' || input.charAt(pos) == '\t')) {
+            pos++;
+        }
+    }
+    private IllegalArgumentException error(String message) {
+        String found = pos < input.length()
+                ? "'" + input.charAt(pos) + "'" : "<EOF>";
+        return new IllegalArgumentException(
+                message + " at position " + pos + ": " + found);
+    }
+    private static boolean isDigit(char c) {
+        return '0' <= c && c <= '9';
+    }
+    private static boolean isLetter(char c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
+    }
+}
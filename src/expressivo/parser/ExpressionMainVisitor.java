@@ -2,32 +2,55 @@ package expressivo.parser;
 
 import expressivo.Expression;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Converts a parse tree of Expression.g4 into an Expression.
+ *
+ * Sums, products and brackets are walked with an explicit stack rather than
+ * by recursive visits, so the depth of the parse tree is limited by the heap
+ * rather than by the thread's stack. Operands are still converted left before
+ * right. A chain of one operator, such as a + b + c, which the grammar nests
+ * to the left, is combined at once over all its operands with Expression.sum
+ * or Expression.product, giving the same result as combining them pairwise
+ * with addExpr and multiplyExpr, in linear time.
+ */
 public class ExpressionMainVisitor extends ExpressionBaseVisitor<Expression> {
+    /** Marks a pending sum or product on the work stack of build() */
+    private static final class Chain {
+        private final boolean sum;
+        private final int length;
+
+        /** @param sum true for a sum, false for a product; length number of operands */
+        private Chain(boolean sum, int length) {
+            this.sum = sum;
+            this.length = length;
+        }
+    }
+
     /** Returns the whole expression generated from the parse tree */
     @Override public Expression visitRoot(ExpressionParser.RootContext ctx) { 
         return visit(ctx.stat()); 
     }
     /** Returns the whole expression generated from the parse tree */
     @Override public Expression visitStat(ExpressionParser.StatContext ctx) { 
-        return visit(ctx.expr()); 
+        return build(ctx.expr()); 
     }
     /** Creates an addition expression on every visit */
     @Override public Expression visitAdd(ExpressionParser.AddContext ctx) {
-        Expression leftExpr = visit(ctx.expr(0));
-        Expression rightExpr = visit(ctx.expr(1));
-        
-        return leftExpr.addExpr(rightExpr);
+        return build(ctx);
     }
     /** Returns the expression inside braces */
     @Override public Expression visitBrackets(ExpressionParser.BracketsContext ctx) {
-        return visit(ctx.expr()); 
+        return build(ctx);
     }
     /** Creates a multiplication expression on every visit */
     @Override public Expression visitMult(ExpressionParser.MultContext ctx) {
-        Expression leftExpr = visit(ctx.expr(0));
-        Expression rightExpr = visit(ctx.expr(1));
-        
-        return leftExpr.multiplyExpr(rightExpr);
+        return build(ctx);
     }
     /** Creates a number on every visit */
     @Override public Expression visitNum(ExpressionParser.NumContext ctx) {
@@ -44,4 +67,49 @@ public class ExpressionMainVisitor extends ExpressionBaseVisitor<Expression> {
         Expression empty = Expression.emptyExpression();
         return empty.addVariable(id);
     }
+
+    /**
+     * Converts an expression subtree without recursion
+     * @param root subtree of the parse tree
+     * @return the expression it stands for
+     */
+    private Expression build(ExpressionParser.ExprContext root) {
+        // each entry of work is either an ExprContext still to convert, or
+        // a Chain whose operands are on top of results
+        final Deque<Object> work = new ArrayDeque<>();
+        final Deque<Expression> results = new ArrayDeque<>();
+        work.push(root);
+        while (!work.isEmpty()) {
+            final Object item = work.pop();
+            if (item instanceof ExpressionParser.AddContext
+                    || item instanceof ExpressionParser.MultContext) {
+                // operands of the chain down the left spine, last first
+                final List<ExpressionParser.ExprContext> chain = new ArrayList<>();
+                ExpressionParser.ExprContext ctx = (ExpressionParser.ExprContext) item;
+                while (ctx.getClass() == item.getClass()) {
+                    chain.add(ctx.getRuleContext(ExpressionParser.ExprContext.class, 1));
+                    ctx = ctx.getRuleContext(ExpressionParser.ExprContext.class, 0);
+                }
+                chain.add(ctx);
+                work.push(new Chain(item instanceof ExpressionParser.AddContext, chain.size()));
+                for (ExpressionParser.ExprContext operand : chain) {
+                    work.push(operand);
+                }
+            } else if (item instanceof ExpressionParser.BracketsContext) {
+                work.push(((ExpressionParser.BracketsContext) item).expr());
+            } else if (item instanceof Chain) {
+                final Chain pending = (Chain) item;
+                final Expression[] operands = new Expression[pending.length];
+                for (int i = operands.length - 1; i >= 0; i--) {
+                    operands[i] = results.pop();
+                }
+                results.push(pending.sum
+                        ? Expression.sum(Arrays.asList(operands))
+                        : Expression.product(Arrays.asList(operands)));
+            } else {
+                results.push(visit((ExpressionParser.ExprContext) item));
+            }
+        }
+        return results.pop();
+    }
 }
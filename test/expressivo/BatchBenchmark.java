@@ -0,0 +1,64 @@
+package expressivo;
+
+import java.util.Random;
+
+/**
+ * Measures batch evaluation of a scoring polynomial, a weighted sum of
+ * features and of products of two features, over a table of rows small
+ * enough to stay in cache, so that arithmetic rather than memory is measured.
+ *
+ * Not a JUnit test: run main() once with each batch backend and compare, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.BatchBenchmark
+ *     java -Dexpressivo.eval.lanes=false -cp ... expressivo.BatchBenchmark
+ */
+public class BatchBenchmark {
+    private static final int FEATURES = 16;
+    private static final int ROWS = 1 << 12;
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) {
+        Random random = new Random(6005);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < FEATURES; i++) {
+            input.append(random.nextInt(100) / 8.0).append('*').append(feature(i)).append(" + ");
+            input.append(feature(i)).append('*').append(feature((i + 1) % FEATURES)).append(" + ");
+        }
+        input.append("1");
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse(input.toString()));
+        double[][] columns = new double[compiled.variables().size()][ROWS];
+        for (double[] column : columns) {
+            for (int row = 0; row < ROWS; row++) {
+                column[row] = random.nextDouble();
+            }
+        }
+        double[] out = new double[ROWS];
+
+        System.out.println("lanes: " + LaneKernels.ENABLED);
+        for (int round = 0; round < 2; round++) {
+            measure(compiled, columns, out, WARMUP_NANOS);
+            System.out.printf("%14.0f rows/s%n", measure(compiled, columns, out, MEASURED_NANOS));
+        }
+    }
+    private static String feature(int i) {
+        return "f" + (char) ('a' + i);
+    }
+    /** @return rows evaluated per second, over about duration nanoseconds */
+    private static double measure(CompiledExpression compiled, double[][] columns,
+            double[] out, long duration) {
+        long rows = 0;
+        double sink = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            compiled.evalColumns(columns, out);
+            sink += out[rows % ROWS == 0 ? 0 : 1];
+            rows += ROWS;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return rows * 1e9 / elapsed;
+    }
+}
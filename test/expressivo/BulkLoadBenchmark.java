@@ -0,0 +1,113 @@
+package expressivo;
+
+import expressivo.parser.ExpressionFastParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares ways of loading a file of expressions, one per line:
+ *   readline-antlr  BufferedReader.readLine, then Expression.parseReference
+ *   readline-parse  BufferedReader.readLine, then Expression.parse, through
+ *                   the shared ParseCache
+ *   readline-fast   BufferedReader.readLine, then the parser behind
+ *                   Expression.parse, without its cache
+ *   bulk            BulkLoader, which reads lines like readline-fast and
+ *                   wraps each in a Line
+ * The file is generated in the temporary directory, with one invalid line
+ * in every thousand, and deleted afterwards.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.BulkLoadBenchmark [lines]
+ */
+public class BulkLoadBenchmark {
+    private static final int DEFAULT_LINES = 1_000_000;
+
+    /** A way of loading a file, returning the number of valid lines */
+    private interface Method {
+        long load(Path file) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int lineCount = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_LINES;
+        Path file = Files.createTempFile("expressions", ".txt");
+        try {
+            Random random = new Random(6005);
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+                for (int i = 0; i < lineCount; i++) {
+                    out.write((i % 1000 == 999) ? "x + (y" : polynomial(random));
+                    out.write('\n');
+                }
+            }
+            Map<String, Method> methods = new LinkedHashMap<>();
+            methods.put("readline-antlr", f -> readLines(f, Expression::parseReference));
+            methods.put("readline-parse", f -> readLines(f, Expression::parse));
+            methods.put("readline-fast", f -> readLines(f, ExpressionFastParser::parse));
+            methods.put("bulk", BulkLoadBenchmark::bulk);
+
+            double megabytes = Files.size(file) / 1e6;
+            System.out.printf("%d lines, %.1f MB%n%-15s %12s %10s%n",
+                    lineCount, megabytes, "method", "lines/s", "MB/s");
+            for (int round = 0; round < 2; round++) {
+                for (Map.Entry<String, Method> method : methods.entrySet()) {
+                    long start = System.nanoTime();
+                    long valid = method.getValue().load(file);
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    assert valid == lineCount - lineCount / 1000;
+                    System.out.printf("%-15s %12.0f %10.1f%n", method.getKey(),
+                            lineCount / seconds, megabytes / seconds);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+    /** @return a random polynomial of a few terms */
+    private static String polynomial(Random random) {
+        StringBuilder input = new StringBuilder();
+        int terms = 1 + random.nextInt(6);
+        for (int t = 0; t < terms; t++) {
+            if (t > 0) {
+                input.append(" + ");
+            }
+            input.append(random.nextInt(1000) / 8.0);
+            for (int f = random.nextInt(3); f > 0; f--) {
+                input.append('*').append((char) ('a' + random.nextInt(8)));
+            }
+        }
+        return input.toString();
+    }
+    private static long readLines(Path file, Function<String, Expression> parser) throws IOException {
+        long valid = 0;
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                try {
+                    parser.apply(line);
+                    valid++;
+                } catch (IllegalArgumentException iae) {
+                    // counted as invalid
+                }
+            }
+        }
+        return valid;
+    }
+    private static long bulk(Path file) throws IOException {
+        long valid = 0;
+        try (BulkLoader loader = new BulkLoader(file)) {
+            while (loader.hasNext()) {
+                if (loader.next().isValid()) {
+                    valid++;
+                }
+            }
+        }
+        return valid;
+    }
+}
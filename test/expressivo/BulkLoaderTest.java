@@ -0,0 +1,162 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for BulkLoader
+ */
+public class BulkLoaderTest {
+    // Testing Strategy
+    //  Partitions for next, hasNext: BulkLoader -> Line
+    //   file: empty, one line, many lines
+    //   line: valid, invalid, empty, ends with "\n", "\r\n", "\r", end of
+    //         file, non-ASCII bytes
+    //  Partitions for lines: Path -> Stream<Line>
+    //   file: valid and invalid lines
+    //  Partitions for Line: number, isValid, expression, error
+    //   line: valid, invalid
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    /** @return a new file holding bytes */
+    private Path write(byte[] bytes) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, bytes);
+        return file;
+    }
+    private Path write(String text) throws IOException {
+        return write(text.getBytes(StandardCharsets.US_ASCII));
+    }
+    private static List<BulkLoader.Line> load(BulkLoader loader) throws IOException {
+        List<BulkLoader.Line> lines = new ArrayList<>();
+        try {
+            while (loader.hasNext()) {
+                lines.add(loader.next());
+            }
+        } finally {
+            loader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    // covers empty file
+    public void testNext_EmptyFile() throws IOException {
+        BulkLoader loader = new BulkLoader(write(""));
+
+        assertFalse("Expected no lines", loader.hasNext());
+        try {
+            loader.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException nse) {
+            // expected
+        } finally {
+            loader.close();
+        }
+    }
+    @Test
+    // covers one line, valid, end of file
+    public void testNext_OneLine() throws IOException {
+        List<BulkLoader.Line> lines = load(new BulkLoader(write("x*y + 2.5")));
+
+        assertEquals("Expected one line", 1, lines.size());
+        assertEquals("Expected line number", 1, lines.get(0).number());
+        assertTrue("Expected valid", lines.get(0).isValid());
+        assertNull("Expected no error", lines.get(0).error());
+        assertEquals("Expected parsed expression",
+                Expression.parse("x*y + 2.5"), lines.get(0).expression());
+    }
+    @Test
+    // covers many lines, valid, invalid, empty, "\n", "\r\n"
+    public void testNext_InvalidLinesReported() throws IOException {
+        String text = "x + 1\n(x\r\n\n2*x*x\r\nx $ y\nx\n";
+        List<BulkLoader.Line> lines = load(new BulkLoader(write(text)));
+
+        assertEquals("Expected empty line skipped", 5, lines.size());
+        long[] numbers = { 1, 2, 4, 5, 6 };
+        boolean[] valid = { true, false, true, false, true };
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals("Expected line number", numbers[i], lines.get(i).number());
+            assertEquals("Expected validity of line " + numbers[i], valid[i], lines.get(i).isValid());
+        }
+        assertEquals("Expected parsed expression",
+                Expression.parse("2*x*x"), lines.get(2).expression());
+        assertEquals("Expected parser's message",
+                "missing ')' at position 2: <EOF>", lines.get(1).error());
+        assertTrue("Expected parser's message", lines.get(3).error().contains("position 2"));
+        try {
+            lines.get(3).expression();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ise) {
+            assertTrue("Expected line number in message", ise.getMessage().startsWith("line 5: "));
+        }
+    }
+    @Test
+    // covers non-ASCII bytes
+    public void testNext_NonAsciiInvalid() throws IOException {
+        byte[] bytes = { 'x', ' ', '+', ' ', (byte) 0xc3, (byte) 0xa9, '\n', 'y' };
+        List<BulkLoader.Line> lines = load(new BulkLoader(write(bytes)));
+
+        assertEquals("Expected two lines", 2, lines.size());
+        assertFalse("Expected invalid", lines.get(0).isValid());
+        assertEquals("Expected next line loaded",
+                Expression.parse("y"), lines.get(1).expression());
+    }
+    @Test
+    // covers many lines, ends with "\r\n", "\n" and "\r"
+    public void testNext_ManyLines() throws IOException {
+        final String[] endings = { "\r\n", "\n", "\r" };
+        StringBuilder text = new StringBuilder();
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            String input = (i % 3 == 0) ? "x*y + " + i : "(a + b)*" + i;
+            inputs.add(input);
+            text.append(input).append(endings[i % endings.length]);
+        }
+        List<BulkLoader.Line> lines = load(new BulkLoader(write(text.toString())));
+
+        assertEquals("Expected every line", inputs.size(), lines.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            assertEquals("Expected line number", i + 1, lines.get(i).number());
+            assertEquals("Expected parsed expression for " + inputs.get(i),
+                    Expression.parse(inputs.get(i)), lines.get(i).expression());
+        }
+    }
+    @Test
+    // covers lines, valid and invalid lines
+    public void testLines() throws IOException {
+        Path file = write("x + 1\n2 +\ny*y\n");
+        List<String> strings;
+        try (Stream<BulkLoader.Line> lines = BulkLoader.lines(file)) {
+            strings = lines.map(line -> line.isValid()
+                    ? line.expression().toString() : "line " + line.number())
+                    .collect(Collectors.toList());
+        }
+
+        assertEquals("Expected every line",
+                Arrays.asList(Expression.parse("x + 1").toString(), "line 2",
+                        Expression.parse("y*y").toString()),
+                strings);
+    }
+}
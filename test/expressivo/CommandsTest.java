@@ -5,8 +5,12 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
@@ -31,6 +35,26 @@ public class CommandsTest {
     //              contains one variable in map,
     //              contains all the variables in map,
     //              contains multiple variables in map
+    //
+    //   Partitions for canonicalize: String -> String, Expression -> Expression
+    //     expression: like terms apart, like terms in products written in
+    //              different orders, products of sums, no like terms,
+    //              invalid
+    //
+    //   Partitions for evaluate: Expression x Map -> double[]
+    //     rows: 0, 1, more than one block of rows
+    //     expression: no variables, constants between operations,
+    //              nested groups, variable without a column
+    //     columns: extra columns, of different lengths
+    //
+    //   Partitions for differentiate, simplify on Expression:
+    //     expression: contains the variable, doesn't contain it;
+    //              environment: binds every variable, some of them
+    //
+    //   Partitions for differentiateAll, simplifyAll: List x ... x ForkJoinPool -> List
+    //     expressions: none, one, more than the pool has workers;
+    //              all valid, some invalid
+    //     pool: common pool, one worker, several workers
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
@@ -217,4 +241,187 @@ public class CommandsTest {
         assertEquals("Expected variables substituted and simplified", 
                 expected, actual);
     }
+    
+    // Tests for the Expression overloads
+    @Test
+    // covers expression containing the variable and not, environment binding
+    //        every variable and some of them
+    public void testExpressionOverloads_AgreeWithStrings() {
+        String input = "x*x*y + (y + 2)*x + 3";
+        Expression expr = Expression.parse(input);
+        Map<String, Double> some = new HashMap<>();
+        some.put("y", 4.0);
+        Map<String, Double> every = new HashMap<>(some);
+        every.put("x", 0.5);
+        
+        assertEquals("Expected same derivative",
+                Commands.differentiate(input, "x"), Commands.differentiate(expr, "x").toString());
+        assertEquals("Expected zero derivative",
+                Expression.emptyExpression(), Commands.differentiate(expr, "z"));
+        assertEquals("Expected same simplification",
+                Commands.simplify(input, some), Commands.simplify(expr, some).toString());
+        assertEquals("Expected a number",
+                Expression.parse("7"), Commands.simplify(expr, every));
+        assertEquals("Expected same simplification by slot",
+                Commands.simplify(expr, some), Commands.simplify(expr, Environment.of(some)));
+    }
+    
+    // Tests for Commands.canonicalize()
+    @Test
+    // covers like terms apart, like terms in products written in different orders
+    public void testCanonicalize_LikeTermsCollected() {
+        assertEquals("Expected like terms collected",
+                "(2)*(x) + y", Commands.canonicalize("x + y + x"));
+        assertEquals("Expected products in any order collected",
+                Commands.canonicalize("(2)*(x*y)"), Commands.canonicalize("x*y + y*x"));
+    }
+    @Test
+    // covers products of sums, no like terms, Expression overload
+    public void testCanonicalize_ProductsExpanded() {
+        Expression expr = Expression.parse("(x + 1)*(x + 1)");
+        
+        assertEquals("Expected the polynomial's expression",
+                Polynomial.of(expr).toExpression(), Commands.canonicalize(expr));
+        assertEquals("Expected same as the String overload",
+                Commands.canonicalize("(x + 1)*(x + 1)"), Commands.canonicalize(expr).toString());
+        assertEquals("Expected no like terms left alone",
+                Expression.parse("y"), Commands.canonicalize(Expression.parse("y")));
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers invalid
+    public void testCanonicalize_Invalid() {
+        Commands.canonicalize("x + (");
+    }
+    
+    // Tests for Commands.evaluate()
+    @Test
+    // covers more than one block of rows, nested groups,
+    //        constants between operations, extra columns
+    public void testEvaluate_Rows() {
+        String expr = "2*x*y + (x + 0.5)*(y + z*3) + 1";
+        final int rows = 5000;
+        Map<String, double[]> columns = new HashMap<>();
+        double[] x = new double[rows];
+        double[] y = new double[rows];
+        double[] z = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            x[row] = row * 0.5;
+            y[row] = 3 + row % 7;
+            z[row] = row % 3;
+        }
+        columns.put("x", x);
+        columns.put("y", y);
+        columns.put("z", z);
+        columns.put("unused", new double[rows]);
+        double[] actual = Commands.evaluate(expr, columns);
+        
+        assertEquals("Expected one value per row", rows, actual.length);
+        for (int row = 0; row < rows; row += 999) {
+            double expected = 2*x[row]*y[row] + (x[row] + 0.5)*(y[row] + z[row]*3) + 1;
+            assertEquals("Expected value of row " + row, expected, actual[row], 1e-9);
+        }
+    }
+    @Test
+    // covers no variables, 1 row and 0 rows
+    public void testEvaluate_Constant() {
+        Map<String, double[]> noColumns = new HashMap<>();
+        double[] empty = new double[0];
+        Commands.evaluate("1 + 2*3", noColumns, empty);
+        
+        assertArrayEquals("Expected one row", new double[] {7},
+                Commands.evaluate("1 + 2*3", noColumns), 1e-9);
+        assertEquals("Expected no rows", 0, empty.length);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers variable without a column
+    public void testEvaluate_MissingColumn() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2});
+        Commands.evaluate("x*y", columns);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers columns of different lengths
+    public void testEvaluate_ColumnLengths() {
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("x", new double[] {1, 2});
+        columns.put("y", new double[] {1});
+        Commands.evaluate("x*y", columns);
+    }
+    
+    // Tests for Commands.differentiateAll() and simplifyAll()
+    /** @return n expressions, every seventh one invalid */
+    private static List<String> batch(int n) {
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            expressions.add((i % 7 == 3) ? "x + (" + i : i + "*x*y + x*x + (y + " + (i % 5) + ")*x");
+        }
+        return expressions;
+    }
+    @Test
+    // covers more expressions than workers, some invalid, several workers
+    public void testDifferentiateAll_InOrder() {
+        List<String> expressions = batch(200);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<CommandResult> results = Commands.differentiateAll(expressions, "x", pool);
+            
+            assertEquals("Expected one result per expression", expressions.size(), results.size());
+            for (int i = 0; i < expressions.size(); i++) {
+                CommandResult result = results.get(i);
+                if (i % 7 == 3) {
+                    assertFalse("Expected invalid " + expressions.get(i), result.isValid());
+                    assertNotNull("Expected message", result.error());
+                } else {
+                    assertTrue("Expected valid " + expressions.get(i), result.isValid());
+                    assertEquals("Expected derivative of " + expressions.get(i),
+                            Commands.differentiate(expressions.get(i), "x"), result.output());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    @Test
+    // covers one expression, invalid, one worker
+    public void testDifferentiateAll_OneInvalid() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            List<CommandResult> results = Commands.differentiateAll(
+                    Collections.singletonList("x $ y"), "x", pool);
+            
+            assertEquals("Expected one result", 1, results.size());
+            try {
+                results.get(0).output();
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException iae) {
+                assertEquals("Expected original message", results.get(0).error(), iae.getMessage());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+    @Test
+    // covers no expressions, common pool
+    public void testSimplifyAll_Empty() {
+        assertEquals("Expected no results", Collections.emptyList(),
+                Commands.simplifyAll(Collections.emptyList(), new HashMap<>()));
+    }
+    @Test
+    // covers more expressions than workers, some invalid, common pool
+    public void testSimplifyAll_InOrder() {
+        List<String> expressions = batch(100);
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("z", 5.0);
+        List<CommandResult> results = Commands.simplifyAll(expressions, environment);
+        
+        assertEquals("Expected one result per expression", expressions.size(), results.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            assertEquals("Expected valid iff parsable", i % 7 != 3, results.get(i).isValid());
+            if (results.get(i).isValid()) {
+                assertEquals("Expected simplification of " + expressions.get(i),
+                        Commands.simplify(expressions.get(i), environment), results.get(i).output());
+            }
+        }
+    }
 }
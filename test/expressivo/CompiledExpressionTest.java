@@ -0,0 +1,216 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for CompiledExpression
+ */
+public class CompiledExpressionTest {
+    // Testing Strategy
+    //  Partitions for compile: Expression -> CompiledExpression
+    //   expression: Value, Variable, Addition, Multiplication, nested;
+    //   constants 0, 1, other; 0, 1, > 5 variables
+    //   size: one method, sum split in chunks, single term too long
+    //  Partitions for compile: Expression x List<String> -> CompiledExpression
+    //   variables in expression: all in list, some missing; list has extras
+    //  Partitions for eval: CompiledExpression x double[] -> double
+    //   and CompiledExpression x Map -> double, all bound, some unbound
+    //  Partitions for evalColumns: generated and interpreted expressions;
+    //   sums of products of columns and constants; rows filling whole lane
+    //   groups or not
+    //  Partitions for gradient: CompiledExpression x double[] x double[] -> double
+    //   and CompiledExpression x Environment x double[] -> double
+    //   expression: Value, Variable, nested sums and products; variables
+    //   repeated in a product or not; slots the expression doesn't read
+
+    private static final double DELTA = 1e-9;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers Value, Variable, constants 0, 1, other
+    public void testCompile_Leaves() {
+        CompiledExpression zero = CompiledExpression.compile(new Value(0));
+        CompiledExpression number = CompiledExpression.compile(new Value(2.5));
+        CompiledExpression variable = CompiledExpression.compile(new Variable("x"));
+
+        assertEquals("Expected 0", 0, zero.eval(new double[0]), DELTA);
+        assertEquals("Expected constant", 2.5, number.eval(new double[0]), DELTA);
+        assertEquals("Expected one slot", Arrays.asList("x"), variable.variables());
+        assertEquals("Expected slot value", 7, variable.eval(new double[] {7}), DELTA);
+        assertTrue("Expected generated class", variable.isGenerated());
+    }
+    @Test
+    // covers Addition, Multiplication, nested, > 5 variables, Map eval
+    public void testEval_MatchesSubstitute() {
+        Expression expr = Expression.parse(
+                "(a + 1)*(b + c*d) + 3.25*e*f*g + (h + 0.5)*(i*(j + k)) + 1");
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        Map<String, Double> environment = new HashMap<>();
+        for (String variable : compiled.variables()) {
+            environment.put(variable, variable.charAt(0) - 'a' + 0.5);
+        }
+        double expected = Double.parseDouble(expr.substitute(environment).toString());
+
+        assertEquals("Expected slots in order of appearance",
+                Arrays.asList("a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k"),
+                compiled.variables());
+        assertEquals("Expected substitute's value", expected, compiled.eval(environment), 1e-5);
+        assertTrue("Expected generated class", compiled.isGenerated());
+    }
+    @Test
+    // covers sum split in chunks
+    public void testCompile_LongSum() {
+        Expression sum = new Variable("x");
+        double expected = 2;
+        for (int i = 1; i <= 20_000; i++) {
+            sum = new Addition(sum, new Multiplication(new Value(i), new Variable("x")));
+            expected += 2 * i;
+        }
+        CompiledExpression compiled = CompiledExpression.compile(sum);
+
+        assertTrue("Expected generated class", compiled.isGenerated());
+        assertEquals("Expected sum of all terms", expected, compiled.eval(new double[] {2}), DELTA);
+    }
+    @Test
+    // covers single term too long
+    public void testCompile_LongProductInterpreted() {
+        Expression product = new Variable("x");
+        for (int i = 0; i < 5_000; i++) {
+            product = new Multiplication(product, new Variable(i % 2 == 0 ? "y" : "x"));
+        }
+        CompiledExpression compiled = CompiledExpression.compile(product);
+
+        assertFalse("Expected interpreter", compiled.isGenerated());
+        assertEquals("Expected product of all factors", 1,
+                compiled.eval(new double[] {1, 1}), DELTA);
+        assertEquals("Expected product of all factors", Math.pow(2, 2501),
+                compiled.eval(new double[] {2, 1}), 0);
+    }
+    @Test
+    // covers variables all in list, list has extras
+    public void testCompile_GivenSlots() {
+        Expression expr = Expression.parse("x*y + z");
+        CompiledExpression compiled =
+                CompiledExpression.compile(expr, Arrays.asList("z", "unused", "y", "x"));
+
+        assertEquals("Expected given slot", 0, compiled.slotOf("z"));
+        assertEquals("Expected given slot", 3, compiled.slotOf("x"));
+        assertEquals("Expected no slot", -1, compiled.slotOf("w"));
+        assertEquals("Expected slots read as given", 2*3 + 5,
+                compiled.eval(new double[] {5, 100, 3, 2}), DELTA);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers variables some missing
+    public void testCompile_MissingSlot() {
+        CompiledExpression.compile(Expression.parse("x*y"), Arrays.asList("x"));
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers Map eval, some unbound
+    public void testEval_Unbound() {
+        CompiledExpression.compile(Expression.parse("x + y"))
+                .eval(java.util.Collections.singletonMap("x", 1.0));
+    }
+    @Test
+    // covers evalColumns, generated and interpreted expressions
+    public void testEvalColumns_MatchesEval() {
+        Expression product = new Variable("x");
+        for (int i = 0; i < 3_000; i++) {
+            product = new Multiplication(product, new Value(1.0001));
+        }
+        CompiledExpression[] compiled = {
+            CompiledExpression.compile(Expression.parse("x*x*y + 3*(x + y) + 0.25")),
+            CompiledExpression.compile(new Addition(product, new Variable("y"))),
+        };
+        double[][] columns = new double[2][2500];
+        for (int row = 0; row < 2500; row++) {
+            columns[0][row] = row * 0.01;
+            columns[1][row] = 2500 - row;
+        }
+        for (CompiledExpression expr : compiled) {
+            double[] out = new double[2500];
+            expr.evalColumns(columns, out);
+            for (int row = 0; row < out.length; row++) {
+                double[] values = {columns[0][row], columns[1][row]};
+                assertEquals("Expected eval of row " + row, expr.eval(values), out[row], 1e-9);
+            }
+        }
+        assertFalse("Expected one interpreted expression", compiled[1].isGenerated());
+    }
+    @Test
+    // covers evalColumns, sums of products of columns and constants,
+    //        rows filling whole lane groups and not
+    public void testEvalColumns_SumsOfProducts() {
+        Expression expr = new Addition(new Addition(new Addition(
+                new Multiplication(new Variable("a"), new Variable("b")),
+                new Multiplication(new Variable("b"), new Value(3.5))),
+                new Multiplication(new Value(0.25), new Variable("a"))),
+                new Multiplication(new Value(2), new Value(5)));
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        for (int rows : new int[] {0, 3, 8, 1027}) {
+            double[][] columns = new double[2][rows];
+            for (int row = 0; row < rows; row++) {
+                columns[0][row] = row / 3.0;
+                columns[1][row] = 1.0 / (row + 1);
+            }
+            double[] out = new double[rows];
+            compiled.evalColumns(columns, out);
+            for (int row = 0; row < rows; row++) {
+                double a = columns[0][row];
+                double b = columns[1][row];
+                assertEquals("Expected the same rounding as row by row, row " + row,
+                        a*b + b*3.5 + 0.25*a + 2*5.0, out[row], 0);
+            }
+        }
+    }
+    @Test
+    // covers gradient, Value, Variable, slots the expression doesn't read
+    public void testGradient_Leaves() {
+        CompiledExpression number = CompiledExpression.compile(new Value(2.5),
+                Arrays.asList("x"));
+        CompiledExpression variable = CompiledExpression.compile(new Variable("x"));
+        double[] gradient = {7};
+        assertEquals("Expected value", 2.5, number.gradient(new double[] {3}, gradient), DELTA);
+        assertEquals("Expected no dependence on x", 0, gradient[0], DELTA);
+        assertEquals("Expected value", 3, variable.gradient(new double[] {3}, gradient), DELTA);
+        assertEquals("Expected dx/dx", 1, gradient[0], DELTA);
+    }
+    @Test
+    // covers gradient, nested sums and products, variables repeated
+    public void testGradient_MatchesDifferentiate() {
+        Expression expr = Expression.parse("x*x*y + (x + 2)*(y + z*z)*z + 3*y");
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        double[] values = {1.5, 0.25, 2};
+        Map<String, Double> environment = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            environment.put(compiled.variables().get(i), values[i]);
+        }
+        double[] gradient = new double[values.length];
+        assertEquals("Expected value", compiled.eval(values),
+                compiled.gradient(values, gradient), DELTA);
+        for (int i = 0; i < values.length; i++) {
+            String variable = compiled.variables().get(i);
+            Expression derivative = expr.differentiate(variable).substitute(environment);
+            assertEquals("Expected d/d" + variable, ((Value) derivative).num(), gradient[i], 1e-4);
+        }
+    }
+    @Test
+    // covers gradient with an Environment
+    public void testGradient_Environment() {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*y + y"));
+        Environment environment = compiled.newEnvironment();
+        environment.set("x", 2);
+        environment.set("y", 5);
+        double[] gradient = new double[2];
+        assertEquals("Expected value", 15, compiled.gradient(environment, gradient), DELTA);
+        assertArrayEquals("Expected gradient", new double[] {5, 3}, gradient, DELTA);
+    }
+}
@@ -0,0 +1,116 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests for DerivativeCache
+ */
+public class DerivativeCacheTest {
+    // Testing Strategy
+    //  Partitions for differentiate: DerivativeCache x Expression x String -> Expression
+    //   expression: Value, Variable, sum, product, nested; subtrees
+    //   repeated or not; differentiated before or not, by the same variable
+    //   or another; subtrees with Values equal to 5 decimal places but
+    //   not exactly
+    //   cache: capacity 0, capacity 1, capacity > 1
+    //  Partitions for hits, misses, evictions, hitRate, size, clear:
+    //   before and after lookups, after clear
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers Value, Variable, sum, product, nested, not differentiated before
+    public void testDifferentiate_SameAsExpression() {
+        DerivativeCache cache = new DerivativeCache(16);
+        for (String input : new String[] {"2.5", "x", "y", "x + y + 3", "x*y*x",
+                "(x + 1)*(x*y + 2)*x + y*(y + x)"}) {
+            Expression expr = Expression.parse(input);
+            for (String variable : new String[] {"x", "y", "z"}) {
+                Expression expected = expr.differentiate(variable);
+                Expression actual = cache.differentiate(expr, variable);
+                assertEquals("Expected derivative of " + input, expected, actual);
+                assertEquals("Expected the same rendering", expected.toString(), actual.toString());
+            }
+        }
+        // all 9 sums and products contain x, all but x + 1 contain y, none z
+        assertEquals("Expected only sums and products with the variable looked up",
+                9 + 8, cache.misses());
+    }
+    @Test
+    // covers subtrees repeated, capacity > 1
+    public void testDifferentiate_SharedSubtrees() {
+        DerivativeCache cache = new DerivativeCache(16);
+        Expression inner = Expression.parse("(x + 1)*(x*x + 2)");
+        Expression expr = new Addition(new Addition(
+                new Multiplication(inner, new Variable("y")),
+                new Multiplication(new Variable("y"), inner)),
+                new Multiplication(Expression.parse("(x + 1)*(x*x + 2)"), new Value(3)));
+        Expression derivative = cache.differentiate(expr, "x");
+        
+        assertEquals("Expected derivative", expr.differentiate("x"), derivative);
+        // inner*y and inner*3 are flattened, so their sums x + 1 and x*x + 2
+        // are the repeats; y*inner keeps inner, whose factors repeat too
+        assertEquals("Expected repeated subtrees differentiated once", 4, cache.hits());
+        assertSame("Expected one shared derivative", cache.differentiate(inner, "x"),
+                cache.differentiate(Expression.parse("(x + 1)*(x*x + 2)"), "x"));
+    }
+    @Test
+    // covers differentiated before, by the same variable and another
+    public void testDifferentiate_Repeated() {
+        DerivativeCache cache = new DerivativeCache(64);
+        Expression expr = Expression.parse("(x + 1)*(x*y + 2)*x + y*(y + x)");
+        Expression first = cache.differentiate(expr, "x");
+        long misses = cache.misses();
+        
+        assertSame("Expected the remembered derivative", first, cache.differentiate(expr, "x"));
+        assertEquals("Expected nothing differentiated again", misses, cache.misses());
+        cache.differentiate(expr, "y");
+        assertTrue("Expected another variable differentiated", cache.misses() > misses);
+        
+        Expression second = cache.differentiate(first, "x");
+        assertEquals("Expected second derivative", first.differentiate("x"), second);
+        assertTrue("Expected hits " + cache, cache.hitRate() > 0);
+    }
+    @Test
+    // covers Values equal to 5 decimal places but not exactly
+    public void testDifferentiate_NearlyEqualConstants() {
+        DerivativeCache cache = new DerivativeCache(16);
+        Expression close = new Multiplication(new Variable("x"), new Value(1.00001));
+        Expression closer = new Multiplication(new Variable("x"), new Value(1.000019));
+        
+        assertEquals("Expected equal expressions", close, closer);
+        cache.differentiate(close, "x");
+        Expression derivative = cache.differentiate(closer, "x");
+        
+        assertEquals("Expected no hit", 0, cache.hits());
+        assertEquals("Expected the exact derivative",
+                closer.differentiate("x").toString(), derivative.toString());
+    }
+    @Test
+    // covers capacity 0, capacity 1, evictions, clear
+    public void testDifferentiate_Bounded() {
+        DerivativeCache none = new DerivativeCache(0);
+        DerivativeCache one = new DerivativeCache(1);
+        Expression expr = Expression.parse("x*x + (x + 1)*y");
+        
+        assertEquals("Expected derivative", expr.differentiate("x"), none.differentiate(expr, "x"));
+        assertEquals("Expected nothing remembered", 0, none.size());
+        assertEquals("Expected derivative", expr.differentiate("x"), one.differentiate(expr, "x"));
+        assertEquals("Expected one entry", 1, one.size());
+        assertTrue("Expected evictions", one.evictions() > 0);
+        assertEquals("Expected hit rate of misses only", 0, one.hitRate(), 0);
+        
+        one.clear();
+        assertEquals("Expected empty", 0, one.size());
+        assertEquals("Expected counters reset", 0, one.misses() + one.hits() + one.evictions());
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers negative capacity
+    public void testNegativeCapacity() {
+        new DerivativeCache(-1);
+    }
+}
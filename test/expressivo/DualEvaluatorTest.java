@@ -0,0 +1,97 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for DualEvaluator
+ */
+public class DualEvaluatorTest {
+    // Testing Strategy
+    //  Partitions for eval: DualEvaluator x double[] x double[] -> double
+    //   and DualEvaluator x double[] x int -> double
+    //   expression: Value, Variable, nested sums and products; variable
+    //   repeated in a product or not; direction zero, unit, mixed
+    //  Partitions for derivative: before any eval, after eval
+    //  Partitions for evalColumns: 0, 1, many points
+
+    private static final double DELTA = 1e-9;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers Value, Variable, before any eval, direction unit
+    public void testEval_Leaves() {
+        DualEvaluator number = CompiledExpression.compile(new Value(2.5)).newDualEvaluator();
+        DualEvaluator variable = CompiledExpression.compile(new Variable("x")).newDualEvaluator();
+        
+        assertTrue("Expected no derivative yet", Double.isNaN(number.derivative()));
+        assertEquals("Expected value", 2.5, number.eval(new double[0], new double[0]), DELTA);
+        assertEquals("Expected constant", 0, number.derivative(), DELTA);
+        assertEquals("Expected value", 3, variable.eval(new double[] {3}, 0), DELTA);
+        assertEquals("Expected dx/dx", 1, variable.derivative(), DELTA);
+    }
+    @Test
+    // covers nested sums and products, variable repeated, direction unit
+    public void testEval_MatchesDifferentiate() {
+        Expression expr = Expression.parse("x*x*y + (x + 2)*(y + z*z)*z + 3*y");
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        DualEvaluator evaluator = compiled.newDualEvaluator();
+        double[] point = {1.5, 0.25, 2};
+        Map<String, Double> environment = new HashMap<>();
+        for (int i = 0; i < point.length; i++) {
+            environment.put(compiled.variables().get(i), point[i]);
+        }
+        for (int i = 0; i < point.length; i++) {
+            String variable = compiled.variables().get(i);
+            Expression derivative = expr.differentiate(variable).substitute(environment);
+            assertEquals("Expected value", compiled.eval(point), evaluator.eval(point, i), DELTA);
+            assertEquals("Expected d/d" + variable, ((Value) derivative).num(),
+                    evaluator.derivative(), 1e-4);
+        }
+    }
+    @Test
+    // covers direction zero, mixed; compared to gradient
+    public void testEval_Direction() {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*y*y + 4*x"));
+        DualEvaluator evaluator = compiled.newDualEvaluator();
+        double[] point = {3, 2};
+        double[] gradient = new double[2];
+        compiled.gradient(point, gradient);
+        
+        evaluator.eval(point, new double[] {0, 0});
+        assertEquals("Expected no change along zero", 0, evaluator.derivative(), DELTA);
+        assertEquals("Expected value", 24, evaluator.eval(point, new double[] {0.5, -2}), DELTA);
+        assertEquals("Expected gradient . direction",
+                0.5 * gradient[0] - 2 * gradient[1], evaluator.derivative(), DELTA);
+    }
+    @Test
+    // covers evalColumns, 0, 1, many points
+    public void testEvalColumns() {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*x + x*y"));
+        DualEvaluator evaluator = compiled.newDualEvaluator();
+        double[] direction = {1, 0};
+        for (int rows : new int[] {0, 1, 100}) {
+            double[][] columns = new double[2][rows];
+            for (int row = 0; row < rows; row++) {
+                columns[0][row] = row * 0.5;
+                columns[1][row] = rows - row;
+            }
+            double[] out = new double[rows];
+            double[] derivatives = new double[rows];
+            evaluator.evalColumns(columns, direction, out, derivatives);
+            for (int row = 0; row < rows; row++) {
+                double x = columns[0][row];
+                double y = columns[1][row];
+                assertEquals("Expected value of row " + row, x*x + x*y, out[row], DELTA);
+                assertEquals("Expected d/dx of row " + row, 2*x + y, derivatives[row], DELTA);
+            }
+        }
+    }
+}
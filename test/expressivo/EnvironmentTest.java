@@ -0,0 +1,129 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Environment and the operations that take one
+ */
+public class EnvironmentTest {
+    // Testing Strategy
+    //  Partitions for of: made from an expression, a list, a map;
+    //   0, 1, many variables; list with a repeated variable
+    //  Partitions for set, unset, isBound, isComplete, copy:
+    //   slot unbound, bound, rebound; by slot, by name, name without slot;
+    //   value negative; copies changed after copying
+    //  Partitions for substitute(Environment):
+    //   variables bound, unbound, without a slot; compared to substitute(Map)
+    //  Partitions for CompiledExpression.eval(Environment), Commands.simplify:
+    //   environment from newEnvironment(), from elsewhere; unbound variable
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers made from an expression, many variables, 0 variables
+    public void testOf_Expression() {
+        Environment environment = Environment.of(Expression.parse("y*x + (z + x)*y"));
+        
+        assertEquals("Expected variables in order of appearance",
+                Arrays.asList("y", "x", "z"), environment.variables());
+        assertEquals("Expected slot by name", 2, environment.slotOf("z"));
+        assertEquals("Expected no slot", -1, environment.slotOf("w"));
+        assertFalse("Expected unbound slots", environment.isComplete());
+        assertTrue("Expected no slots to bind",
+                Environment.of(Expression.parse("1 + 2")).isComplete());
+    }
+    @Test
+    // covers made from a map, 1 variable
+    public void testOf_Map() {
+        Map<String, Double> bindings = new HashMap<>();
+        bindings.put("x", 2.5);
+        Environment environment = Environment.of(bindings);
+        
+        assertTrue("Expected all bound", environment.isComplete());
+        assertEquals("Expected value of x", 2.5, environment.get(environment.slotOf("x")), 0);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers list with a repeated variable
+    public void testOf_RepeatedVariable() {
+        Environment.of(Arrays.asList("x", "y", "x"));
+    }
+    @Test
+    // covers unbound, bound, rebound, by slot, by name, copies changed after copying
+    public void testSet_Copy() {
+        Environment environment = Environment.of(Arrays.asList("a", "b"));
+        environment.set(0, 1.5);
+        Environment copy = environment.copy();
+        environment.set("b", 2);
+        copy.set(0, 4);
+        
+        assertTrue("Expected all bound", environment.isComplete());
+        assertFalse("Expected copy unaffected", copy.isBound(1));
+        assertEquals("Expected original unaffected", 1.5, environment.get(0), 0);
+        
+        environment.unset(0);
+        assertFalse("Expected unbound", environment.isBound(0));
+        assertTrue("Expected NaN for unbound", Double.isNaN(environment.get(0)));
+        assertFalse("Expected incomplete", environment.isComplete());
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers name without slot
+    public void testSet_NoSlot() {
+        Environment.of(Arrays.asList("a")).set("b", 1);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers value negative
+    public void testSet_Negative() {
+        Environment.of(Arrays.asList("a")).set(0, -1);
+    }
+    @Test
+    // covers substitute with variables bound, unbound, without a slot
+    public void testSubstitute_MatchesMap() {
+        Expression expr = Expression.parse("x*y + 2*z + x + w");
+        Environment environment = Environment.of(Arrays.asList("x", "y", "z"));
+        environment.set("x", 3);
+        environment.set("y", 0.5);
+        Map<String, Double> bindings = new HashMap<>();
+        bindings.put("x", 3.0);
+        bindings.put("y", 0.5);
+        
+        assertEquals("Expected same result as with a map",
+                expr.substitute(bindings), expr.substitute(environment));
+        assertEquals("Expected unbound variables kept",
+                Expression.parse("1.5 + 2*z + 3 + w"), expr.substitute(environment));
+        assertEquals("Expected same string as with a map",
+                Commands.simplify("x*y + 2*z + x + w", bindings),
+                Commands.simplify("x*y + 2*z + x + w", environment));
+    }
+    @Test
+    // covers eval with environment from newEnvironment(), from elsewhere
+    public void testEval_Environment() {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*x + 3*y"));
+        Environment own = compiled.newEnvironment();
+        own.set("x", 2);
+        own.set("y", 1);
+        Environment other = Environment.of(Arrays.asList("y", "unused", "x"));
+        other.set("x", 2);
+        other.set("y", 1);
+        
+        assertEquals("Expected value from own slots", 7, compiled.eval(own), 1e-9);
+        assertEquals("Expected value from other slots", 7, compiled.eval(other), 1e-9);
+        own.set("x", 3);
+        assertEquals("Expected rebound value", 12, compiled.eval(own), 1e-9);
+    }
+    @Test(expected=IllegalArgumentException.class)
+    // covers eval with an unbound variable
+    public void testEval_Unbound() {
+        CompiledExpression compiled = CompiledExpression.compile(Expression.parse("x*y"));
+        Environment environment = compiled.newEnvironment();
+        environment.set("x", 1);
+        compiled.eval(environment);
+    }
+}
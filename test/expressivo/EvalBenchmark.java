@@ -0,0 +1,116 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares ways of evaluating one polynomial for many variable bindings:
+ *   substitute    Expression.substitute with a Map, down to one Value
+ *   environment   Expression.substitute with an Environment, rebound per row
+ *   interpreted   the stack program CompiledExpression falls back to
+ *   compiled      the class CompiledExpression generates
+ *   hand-written  the same polynomial as Java code
+ *   columns       CompiledExpression.evalColumns over all the bindings at once
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.EvalBenchmark
+ */
+public class EvalBenchmark {
+    private static final String POLYNOMIAL =
+            "3*x*x*x + 2.5*x*x*y + 0.5*x*y*z + 4*y*y + 7*z + (x + 1)*(y + 2)*(z + 3) + 11";
+    private static final int BINDINGS = 1024;
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    /** An evaluation of the polynomial for binding i */
+    private interface Method {
+        double eval(int i);
+    }
+
+    public static void main(String[] args) {
+        Expression expr = Expression.parse(POLYNOMIAL);
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        StackProgram interpreted = StackProgram.lower(expr,
+                slotsOf(compiled), false);
+        double[][] values = new double[BINDINGS][];
+        List<Map<String, Double>> environments = new ArrayList<>(BINDINGS);
+        for (int i = 0; i < BINDINGS; i++) {
+            values[i] = new double[] {i * 0.001, 1 + i * 0.002, 2 + i * 0.003};
+            Map<String, Double> bindings = new HashMap<>();
+            for (String variable : compiled.variables()) {
+                bindings.put(variable, values[i][compiled.slotOf(variable)]);
+            }
+            environments.add(bindings);
+        }
+
+        Map<String, Method> methods = new LinkedHashMap<>();
+        methods.put("substitute", i -> ((Value) expr.substitute(environments.get(i))).num());
+        Environment environment = Environment.of(expr);
+        methods.put("environment", i -> {
+            for (int slot = 0; slot < environment.size(); slot++) {
+                environment.set(slot, values[i][compiled.slotOf(environment.variables().get(slot))]);
+            }
+            return ((Value) expr.substitute(environment)).num();
+        });
+        methods.put("interpreted", i -> interpreted.eval(values[i]));
+        methods.put("compiled", i -> compiled.eval(values[i]));
+        methods.put("hand-written", i -> handWritten(values[i]));
+        double[][] columns = new double[compiled.variables().size()][BINDINGS];
+        for (int i = 0; i < BINDINGS; i++) {
+            for (int slot = 0; slot < columns.length; slot++) {
+                columns[slot][i] = values[i][slot];
+            }
+        }
+        double[] out = new double[BINDINGS];
+        // evaluates the whole batch on its first row, then reads it back
+        methods.put("columns", i -> {
+            if (i == 0) {
+                compiled.evalColumns(columns, out);
+            }
+            return out[i];
+        });
+
+        System.out.printf("%-14s %14s%n", "method", "evaluations/s");
+        for (int round = 0; round < 2; round++) {
+            for (Map.Entry<String, Method> method : methods.entrySet()) {
+                measure(method.getValue(), WARMUP_NANOS);
+                System.out.printf("%-14s %14.0f%n", method.getKey(),
+                        measure(method.getValue(), MEASURED_NANOS));
+            }
+        }
+    }
+    private static Map<String, Integer> slotsOf(CompiledExpression compiled) {
+        Map<String, Integer> slots = new HashMap<>();
+        for (String variable : compiled.variables()) {
+            slots.put(variable, compiled.slotOf(variable));
+        }
+        return slots;
+    }
+    private static double handWritten(double[] v) {
+        double x = v[0];
+        double y = v[1];
+        double z = v[2];
+        return 3*x*x*x + 2.5*x*x*y + 0.5*x*y*z + 4*y*y + 7*z + (x + 1)*(y + 2)*(z + 3) + 11;
+    }
+    /** @return evaluations per second, run for about duration nanoseconds */
+    private static double measure(Method method, long duration) {
+        long count = 0;
+        double sink = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < BINDINGS; i++) {
+                sink += method.eval(i);
+            }
+            count += BINDINGS;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return count * 1e9 / elapsed;
+    }
+}
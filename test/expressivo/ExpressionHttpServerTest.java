@@ -0,0 +1,236 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionHttpServer, over loopback
+ */
+public class ExpressionHttpServerTest {
+    // Testing Strategy
+    //  Partitions for requests:
+    //   path: /differentiate, /simplify, /differentiate/all, /simplify/all, other
+    //   method: POST, other
+    //   query: fits the path, doesn't
+    //   body: valid expression, invalid; batch with valid and invalid lines;
+    //         longer than MAX_REQUEST, with Content-Length or chunked
+    //  Partitions for connections:
+    //   one request, several kept alive, several pipelined
+
+    private static final int TIMEOUT_MILLIS = 20_000;
+
+    private ExpressionHttpServer server;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Before
+    public void start() throws IOException {
+        server = new ExpressionHttpServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    }
+    @After
+    public void stop() {
+        server.close();
+    }
+
+    /** The status and body of a response */
+    private static final class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+    /** Sends one request with HttpURLConnection, chunked if asked to */
+    private Response request(String method, String pathAndQuery, String body, boolean chunked)
+            throws IOException {
+        URL url = new URL("http", server.address().getHostString(), server.address().getPort(),
+                pathAndQuery);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            if (chunked) {
+                connection.setChunkedStreamingMode(8192);
+            }
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+        return new Response(status, new String(readAll(in), StandardCharsets.UTF_8));
+    }
+    private Response post(String pathAndQuery, String body) throws IOException {
+        return request("POST", pathAndQuery, body, false);
+    }
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream stream = in) {
+            for (int count; (count = stream.read(buffer)) >= 0; ) {
+                bytes.write(buffer, 0, count);
+            }
+        }
+        return bytes.toByteArray();
+    }
+    /** Reads one response with a Content-Length from a raw connection */
+    private static Response readResponse(InputStream in) throws IOException {
+        String statusLine = readLine(in);
+        int length = -1;
+        for (String header; !(header = readLine(in)).isEmpty(); ) {
+            if (header.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(header.substring("content-length:".length()).trim());
+            }
+        }
+        assertTrue("Expected Content-Length", length >= 0);
+        byte[] body = new byte[length];
+        for (int read = 0; read < length; ) {
+            int count = in.read(body, read, length - read);
+            assertTrue("Expected whole body", count > 0);
+            read += count;
+        }
+        return new Response(Integer.parseInt(statusLine.split(" ")[1]),
+                new String(body, StandardCharsets.UTF_8));
+    }
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b; (b = in.read()) != '\n'; ) {
+            assertTrue("Expected line end", b >= 0);
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+    private static String rawPost(String pathAndQuery, String body) {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return "POST " + pathAndQuery + " HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Length: " + bytes.length + "\r\n\r\n" + body;
+    }
+
+    @Test
+    // covers /differentiate, /simplify, POST, query fits, valid expression, one request
+    public void testCommands_AgreeWithCommands() throws IOException {
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 0.5);
+
+        Response derivative = post("/differentiate?var=x", "x*x*y + 3*x");
+        assertEquals("Expected OK", 200, derivative.status);
+        assertEquals("Expected derivative",
+                Commands.differentiate("x*x*y + 3*x", "x") + "\n", derivative.body);
+
+        Response simplified = post("/simplify?x=2&y=0.5", "x*x*y + 3*x + z");
+        assertEquals("Expected OK", 200, simplified.status);
+        assertEquals("Expected simplified",
+                Commands.simplify("x*x*y + 3*x + z", environment) + "\n", simplified.body);
+    }
+    @Test
+    // covers /differentiate/all, /simplify/all, batch with valid and invalid lines
+    public void testBatches_AgreeWithCommands() throws IOException {
+        List<String> expressions = Arrays.asList("x*x*y", "x + (", "3*x + y*y");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        String body = String.join("\r\n", expressions) + "\n";
+
+        StringBuilder derivatives = new StringBuilder();
+        for (CommandResult result : Commands.differentiateAll(expressions, "y")) {
+            derivatives.append(result).append('\n');
+        }
+        Response differentiated = post("/differentiate/all?var=y", body);
+        assertEquals("Expected OK", 200, differentiated.status);
+        assertEquals("Expected derivatives", derivatives.toString(), differentiated.body);
+        assertTrue("Expected error line", differentiated.body.split("\n")[1].startsWith("error: "));
+
+        StringBuilder simplified = new StringBuilder();
+        for (CommandResult result : Commands.simplifyAll(expressions, environment)) {
+            simplified.append(result).append('\n');
+        }
+        assertEquals("Expected simplified", simplified.toString(), post("/simplify/all?x=2", body).body);
+    }
+    @Test
+    // covers invalid expression, query doesn't fit the path, other path, other method
+    public void testErrors_Statuses() throws IOException {
+        Response invalid = post("/differentiate?var=x", "x + (");
+        assertEquals("Expected bad request", 400, invalid.status);
+        assertFalse("Expected message", invalid.body.trim().isEmpty());
+
+        assertEquals("Expected bad request", 400, post("/differentiate?var=2", "x").status);
+        assertEquals("Expected bad request", 400, post("/differentiate", "x").status);
+        assertEquals("Expected bad request", 400, post("/simplify?x=two", "x").status);
+        assertEquals("Expected not found", 404, post("/integrate?var=x", "x").status);
+        assertEquals("Expected method not allowed", 405,
+                request("GET", "/differentiate?var=x", null, false).status);
+    }
+    @Test
+    // covers body longer than MAX_REQUEST, with Content-Length and chunked
+    public void testBody_TooLong() throws IOException {
+        char[] letters = new char[ExpressionHttpServer.MAX_REQUEST + 10];
+        Arrays.fill(letters, 'x');
+        String body = new String(letters);
+
+        // repeated, since a server that answers before reading the whole
+        // body only fails when the client is still sending
+        for (int i = 0; i < 10; i++) {
+            assertEquals("Expected too large", 413, request("POST", "/differentiate?var=x", body, false).status);
+            assertEquals("Expected too large", 413, request("POST", "/differentiate?var=x", body, true).status);
+            assertEquals("Expected next request served", 200, post("/differentiate?var=x", "x").status);
+        }
+    }
+    @Test
+    // covers several requests kept alive, several pipelined
+    public void testConnection_KeepAliveAndPipelining() throws IOException {
+        try (Socket socket = new Socket(server.address().getAddress(), server.address().getPort())) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            OutputStream out = socket.getOutputStream();
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            out.write(rawPost("/differentiate?var=x", "x*x").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertEquals("Expected first answer",
+                    Commands.differentiate("x*x", "x") + "\n", readResponse(in).body);
+
+            final int count = 20;
+            StringBuilder pipelined = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                pipelined.append(rawPost("/simplify?x=" + i, "x + y"));
+            }
+            out.write(pipelined.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            for (int i = 0; i < count; i++) {
+                Response response = readResponse(in);
+                assertEquals("Expected OK", 200, response.status);
+                assertEquals("Expected answers in order",
+                        Commands.simplify("x + y", Collections.singletonMap("x", (double) i)) + "\n",
+                        response.body);
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for ExpressionServer, over loopback
+ */
+public class ExpressionServerTest {
+    // Testing Strategy
+    //  Partitions for the line protocol:
+    //   lines: expression, !d/d, !simplify, invalid, empty, longer than MAX_LINE;
+    //          sent one at a time, many at once
+    //   line endings: "\n", "\r\n"
+    //   connections: one, several interleaved, many idle
+    //  Partitions for connections, close:
+    //   before and after clients connect and disconnect
+
+    private static final int TIMEOUT_MILLIS = 20_000;
+
+    private ExpressionServer server;
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+
+    @Before
+    public void start() throws IOException {
+        server = new ExpressionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    }
+    @After
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    /** A blocking client of the server */
+    private final class Client implements AutoCloseable {
+        private final Socket socket;
+        private final Writer out;
+        private final BufferedReader in;
+
+        private Client() throws IOException {
+            socket = new Socket(server.address().getAddress(), server.address().getPort());
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+        private void send(String text) throws IOException {
+            out.write(text);
+            out.flush();
+        }
+        /** @return the answer to line */
+        private String ask(String line) throws IOException {
+            send(line + "\n");
+            return in.readLine();
+        }
+        @Override public void close() throws IOException {
+            socket.close();
+        }
+    }
+    /** Waits until the server has count connections */
+    private void awaitConnections(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (server.connections() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals("Expected connections", count, server.connections());
+    }
+
+    @Test
+    // covers expression, !d/d, !simplify, invalid, "\n" and "\r\n", one connection
+    public void testProtocol_AnswersLikeSession() throws IOException {
+        List<String> lines = Arrays.asList("x*x*y + 3*x", "!d/dx", "!simplify x=2 y=5",
+                "x + (", "!d/dy", "!simplify");
+        Session session = new Session();
+        try (Client client = new Client()) {
+            for (int i = 0; i < lines.size(); i++) {
+                String answer = (i % 2 == 0) ? client.ask(lines.get(i))
+                        : client.ask(lines.get(i) + "\r");
+                assertEquals("Expected session's answer to " + lines.get(i),
+                        session.execute(lines.get(i)), answer);
+            }
+        }
+    }
+    @Test
+    // covers several interleaved connections
+    public void testProtocol_SessionPerConnection() throws IOException {
+        try (Client first = new Client(); Client second = new Client()) {
+            first.ask("x*x");
+            second.ask("y*y*y");
+
+            assertEquals("Expected first session's derivative",
+                    Expression.parse("x*x").differentiate("x").toString(), first.ask("!d/dx"));
+            assertEquals("Expected second session's derivative",
+                    Expression.parse("y*y*y").differentiate("x").toString(), second.ask("!d/dx"));
+        }
+    }
+    @Test
+    // covers many lines sent at once
+    public void testProtocol_Pipelined() throws IOException {
+        final int count = 5 * ExpressionServer.MAX_BACKLOG;
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            batch.append("x*").append(i).append(" + y\n");
+        }
+        try (Client client = new Client()) {
+            client.send(batch.toString());
+            for (int i = 0; i < count; i++) {
+                assertEquals("Expected answers in order",
+                        Expression.parse("x*" + i + " + y").toString(), client.in.readLine());
+            }
+        }
+    }
+    @Test
+    // covers line longer than MAX_LINE
+    public void testProtocol_LineTooLong() throws IOException {
+        char[] letters = new char[ExpressionServer.MAX_LINE + 10];
+        Arrays.fill(letters, 'x');
+        try (Client client = new Client()) {
+            String answer = client.ask(new String(letters));
+
+            assertTrue("Expected error", answer.contains("longer than"));
+            assertEquals("Expected next line served", "x", client.ask("x"));
+        }
+    }
+    @Test
+    // covers empty line, connections before and after a client disconnects
+    public void testProtocol_EmptyLineCloses() throws IOException, InterruptedException {
+        try (Client client = new Client()) {
+            awaitConnections(1);
+            client.send("x + 1\n\n");
+
+            assertEquals("Expected answer before closing", "x + 1", client.in.readLine());
+            assertNull("Expected end of stream", client.in.readLine());
+            awaitConnections(0);
+        }
+    }
+    @Test
+    // covers many idle connections
+    public void testConnections_ManyIdle() throws IOException, InterruptedException {
+        final int idle = 300;
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < idle; i++) {
+                clients.add(new Client());
+            }
+            try (Client active = new Client()) {
+                awaitConnections(idle + 1);
+                assertEquals("Expected answer despite idle connections", "x", active.ask("x"));
+                assertEquals("Expected idle connection still served", "y", clients.get(idle / 2).ask("y"));
+            }
+        } finally {
+            for (Client client : clients) {
+                client.close();
+            }
+        }
+        awaitConnections(0);
+    }
+    @Test
+    // covers close with a client connected
+    public void testClose_ClosesConnections() throws IOException, InterruptedException {
+        try (Client client = new Client()) {
+            client.ask("x");
+            server.close();
+
+            assertNull("Expected end of stream", client.in.readLine());
+            assertEquals("Expected no connections", 0, server.connections());
+        }
+    }
+    @Test
+    // covers expression, invalid bytes in a line
+    public void testProtocol_InvalidBytes() throws IOException {
+        try (Client client = new Client()) {
+            OutputStream raw = client.socket.getOutputStream();
+            raw.write(new byte[] { 'x', ' ', '+', ' ', (byte) 0xff, '\n' });
+            raw.flush();
+
+            assertTrue("Expected parse error",
+                    client.in.readLine().startsWith(IllegalArgumentException.class.getName()));
+            assertEquals("Expected next line served", "y", client.ask("y"));
+        }
+    }
+}
@@ -5,6 +5,8 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -71,6 +73,9 @@ public class ExpressionTest {
     //    this: empty expression,
     //          contains multiple variables and values
     //
+    //  Partition for appendTo: Expression x Appendable -> void
+    //    out: empty, non-empty; StringBuilder, Writer
+    //
     //  Partition for equals: Expression x Expression -> boolean
     //    reflexive, symmetric and transitive equality
     //    include tests for numbers correct to 5 decimal places
@@ -508,6 +513,26 @@ public class ExpressionTest {
                 expected3, actual3);
     }
     
+    // Tests for appendTo()
+    @Test
+    // covers StringBuilder, non-empty
+    public void testAppendTo_StringBuilder() throws IOException {
+        StringBuilder out = new StringBuilder("d/dx: ");
+        expr.appendTo(out);
+        
+        assertEquals("Expected expression appended to contents", 
+                "d/dx: " + expr.toString(), out.toString());
+    }
+    @Test
+    // covers Writer, empty
+    public void testAppendTo_Writer() throws IOException {
+        StringWriter out = new StringWriter();
+        expr1.appendTo(out);
+        
+        assertEquals("Expected same characters as toString", 
+                expr1.toString(), out.toString());
+    }
+    
     // Tests for equals()
     @Test
     // covers reflexive equality
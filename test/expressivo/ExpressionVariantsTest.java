@@ -2,8 +2,14 @@ package expressivo;
 
 import static org.junit.Assert.*;
 
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
@@ -46,6 +52,8 @@ public class ExpressionVariantsTest {
     //
     //  Partitions for toString: Expression -> String
     //   - Value: test numbers correct to 5 decimal places
+    //   - Addition, Multiplication: two operands, many operands,
+    //     several expressions extending the same one
     //  
     //  Partitions for equals: Expression x Expression -> boolean
     //   - symmetric equality
@@ -66,6 +74,11 @@ public class ExpressionVariantsTest {
     //  - variables in the input string but not in the expression
     //  - one variable in both the expression and the input string
     //  - multiple variables in both
+    //  - values with more than 5 decimal places
+    //
+    //  Partitions for parse, toString, equals, hashCode, differentiate,
+    //  substitute: expressions nested 50,000 deep, on a thread with a
+    //  small stack
     //
     // Full Cartesian Coverage of partitions
 
@@ -651,6 +664,22 @@ public class ExpressionVariantsTest {
                 val1, Expression.parse(val2.toString()));
     }
     @Test
+    // covers value, digits that are not exact in binary
+    public void testToString_ValueTruncatesDecimalDigits() {
+        DecimalFormat format = new DecimalFormat("###.#####",
+                DecimalFormatSymbols.getInstance(Locale.ROOT));
+        format.setRoundingMode(RoundingMode.DOWN);
+        double[] nums = {0.3, 0.1 + 0.2, 4.35, 1.000009, 99999.999999,
+                123456789.123456, 1e-7, 1e20, 12345678901.5, Double.MAX_VALUE};
+        
+        for (double num : nums) {
+            assertEquals("Expected digits of DecimalFormat, rounded down", 
+                    format.format(num), new Value(num).toString());
+        }
+        assertEquals("Expected shortest digits of 4.35 kept", 
+                "4.35", new Value(4.35).toString());
+    }
+    @Test
     // covers variable
     public void testToString_Variable() {
         Variable varExpr = new Variable("Foo");
@@ -678,6 +707,92 @@ public class ExpressionVariantsTest {
                 addition, Expression.parse(addition.toString()));
     }
     @Test
+    // covers addition, many operands
+    public void testToString_LongSum() {
+        final int terms = 100_000;
+        Expression sum = new Variable("x");
+        Expression firstHalf = new Variable("x");
+        Expression secondHalf = new Value(terms / 2 + 1);
+        StringBuilder expected = new StringBuilder("x");
+        for (int i = 1; i <= terms; i++) {
+            sum = new Addition(sum, new Value(i));
+            expected.append(" + ").append(i);
+            if (i <= terms / 2) {
+                firstHalf = new Addition(firstHalf, new Value(i));
+            } else if (i > terms / 2 + 1) {
+                secondHalf = new Addition(secondHalf, new Value(i));
+            }
+        }
+        Expression regrouped = new Addition(firstHalf, secondHalf);
+        
+        assertEquals("Expected every term in order", 
+                expected.toString(), sum.toString());
+        assertTrue("Expected long sum equal to itself grouped differently",
+                sum.equals(regrouped));
+    }
+    @Test
+    // covers parse, toString, equals, hashCode, differentiate, substitute,
+    //        nested 50,000 deep, small stack
+    public void testDeepNesting() throws InterruptedException {
+        final int depth = 50_000;
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            input.append(i % 2 == 0 ? "x*(" : "(x + ");
+        }
+        input.append('y');
+        for (int i = 0; i < depth; i++) {
+            input.append(')');
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                Expression expr = Expression.parse(input.toString());
+                Expression same = Expression.parse(expr.toString());
+                assertEquals("Expected equal", expr, same);
+                assertEquals("Expected equal hash codes", expr.hashCode(), same.hashCode());
+                assertEquals("Expected the variables kept", expr,
+                        expr.substitute(Collections.singletonMap("z", 1.0)));
+                assertEquals("Expected no z", Value.ZERO, expr.differentiate("z"));
+                assertNotEquals("Expected a derivative", Value.ZERO, expr.differentiate("x"));
+                // the product of the x factors, times d(x + y)/dy
+                Expression derivative = expr.differentiate("y");
+                assertEquals("Expected value at x = 1", new Value(1),
+                        derivative.substitute(Collections.singletonMap("x", 1.0)));
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "deep", 1 << 18);
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw new AssertionError("Expected no failure", failure.get());
+        }
+    }
+    @Test
+    // covers addition and multiplication, 
+    //        several expressions extending the same one
+    public void testToString_SharedOperands() {
+        Variable x = new Variable("x");
+        Variable y = new Variable("y");
+        Addition sum = new Addition(x, y);
+        Expression sum1 = new Addition(sum, new Value(1));
+        Expression sum2 = new Addition(sum, new Value(2));
+        Multiplication product = new Multiplication(x, y);
+        Expression product1 = new Multiplication(product, new Value(1.5));
+        Expression product2 = new Multiplication(product, x);
+        
+        assertEquals("Expected correct string rep", "x + y + 1", sum1.toString());
+        assertEquals("Expected correct string rep", "x + y + 2", sum2.toString());
+        assertEquals("Expected sum unchanged", "x + y", sum.toString());
+        assertEquals("Expected correct string rep", 
+                "((x)*(y))*(1.5)", product1.toString());
+        assertEquals("Expected correct string rep", 
+                "((x)*(y))*(x)", product2.toString());
+        assertEquals("Expected product unchanged", "(x)*(y)", product.toString());
+        assertNotEquals("Expected different last terms", sum1, sum2);
+        assertNotEquals("Expected different last factors", product1, product2);
+    }
+    @Test
     // covers multiplication
     public void testToString_Mult() {
         Variable x = new Variable("x");
@@ -894,6 +1009,28 @@ public class ExpressionVariantsTest {
                 add1.hashCode(), add2.hashCode());
     }
     @Test
+    // covers addition, different groupings of the same summands
+    public void testHashCode_AdditionRegrouped() {
+        Value three = new Value(3);
+        Value four = new Value(4);
+        Value five = new Value(5);
+        Addition leftGrouped = 
+                new Addition(new Addition(three, four), five);// (3 + 4) + 5
+        Addition rightGrouped = 
+                new Addition(three, new Addition(four, five));// 3 + (4 + 5)
+        Addition reordered = 
+                new Addition(new Addition(four, three), five);// (4 + 3) + 5
+      
+        assertTrue("Expected regrouped sums to be equal",
+                leftGrouped.equals(rightGrouped));
+        assertTrue("Expected regrouped sums to be equal",
+                rightGrouped.equals(leftGrouped));
+        assertEquals("Expected regrouped sums to have equal hashcodes", 
+                leftGrouped.hashCode(), rightGrouped.hashCode());
+        assertFalse("Expected reordered sums to be different",
+                leftGrouped.equals(reordered));
+    }
+    @Test
     // covers multiplication
     public void testHashCode_Multiplication() {
         Variable x = new Variable("x");
@@ -1087,4 +1224,19 @@ public class ExpressionVariantsTest {
         assertEquals("Expected simplified expression, other variables ignored", 
                 expected4, actual4);
     }
+    @Test
+    // covers one variable in both, values with more than 5 decimal places
+    public void testSubstitute_ValueBeyondFiveDecimals() {
+        Variable x = new Variable("x");
+        Map<String, Double> env = new HashMap<>();
+        env.put("x", 0.123456);
+        
+        Expression sum = new Addition(x, x).substitute(env);
+        Expression square = new Multiplication(x, x).substitute(env);
+        Expression scaled = new Multiplication(new Value(10), x).substitute(env);
+        
+        assertEquals("Expected sum of untruncated values", "0.24691", sum.toString());
+        assertEquals("Expected product of untruncated values", "0.01524", square.toString());
+        assertEquals("Expected coefficient times untruncated value", "1.23455", scaled.toString());
+    }
 }
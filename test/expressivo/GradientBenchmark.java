@@ -0,0 +1,107 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares ways of computing the gradient of a polynomial in many variables:
+ *   symbolic     differentiate once per variable, then substitute
+ *   compiled     derivatives differentiated and compiled ahead, one eval each
+ *   forward      a DualEvaluator, one forward sweep per variable
+ *   reverse      CompiledExpression.gradient, one sweep forward and one back
+ *   eval         CompiledExpression.eval alone, the value without the gradient,
+ *                for scale
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.GradientBenchmark
+ */
+public class GradientBenchmark {
+    private static final int VARIABLES = 100;
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    /** A computation of the whole gradient into an array */
+    private interface Method {
+        void gradient(double[] gradient);
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(6005);
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < VARIABLES; i++) {
+            input.append(random.nextInt(100) / 8.0).append('*')
+                    .append(variable(i)).append('*').append(variable(i)).append(" + ");
+            input.append(variable(i)).append('*').append(variable((i + 1) % VARIABLES)).append(" + ");
+        }
+        input.append("1");
+        Expression expr = Expression.parse(input.toString());
+        CompiledExpression compiled = CompiledExpression.compile(expr);
+        double[] values = new double[compiled.variables().size()];
+        Map<String, Double> environment = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+            environment.put(compiled.variables().get(i), values[i]);
+        }
+        List<CompiledExpression> derivatives = new ArrayList<>();
+        for (String variable : compiled.variables()) {
+            derivatives.add(CompiledExpression.compile(expr.differentiate(variable),
+                    compiled.variables()));
+        }
+
+        Map<String, Method> methods = new LinkedHashMap<>();
+        methods.put("symbolic", gradient -> {
+            for (int i = 0; i < gradient.length; i++) {
+                gradient[i] = ((Value) expr.differentiate(compiled.variables().get(i))
+                        .substitute(environment)).num();
+            }
+        });
+        methods.put("compiled", gradient -> {
+            for (int i = 0; i < gradient.length; i++) {
+                gradient[i] = derivatives.get(i).eval(values);
+            }
+        });
+        DualEvaluator dual = compiled.newDualEvaluator();
+        methods.put("forward", gradient -> {
+            for (int i = 0; i < gradient.length; i++) {
+                dual.eval(values, i);
+                gradient[i] = dual.derivative();
+            }
+        });
+        methods.put("reverse", gradient -> compiled.gradient(values, gradient));
+        methods.put("eval", gradient -> gradient[0] = compiled.eval(values));
+
+        System.out.printf("%d variables%n%-10s %12s%n", values.length, "method", "gradients/s");
+        for (int round = 0; round < 2; round++) {
+            for (Map.Entry<String, Method> method : methods.entrySet()) {
+                measure(method.getValue(), values.length, WARMUP_NANOS);
+                System.out.printf("%-10s %12.0f%n", method.getKey(),
+                        measure(method.getValue(), values.length, MEASURED_NANOS));
+            }
+        }
+    }
+    private static String variable(int i) {
+        return "x" + (char) ('a' + i / 26) + (char) ('a' + i % 26);
+    }
+    /** @return gradients computed per second, over about duration nanoseconds */
+    private static double measure(Method method, int variables, long duration) {
+        double[] gradient = new double[variables];
+        long count = 0;
+        double sink = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            method.gradient(gradient);
+            sink += gradient[0];
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return count * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,124 @@
+package expressivo;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of ExpressionHttpServer over loopback: a number of clients,
+ * each on one kept-alive connection, send a window of pipelined requests,
+ * read their responses and repeat, for a fixed time. Prints requests
+ * answered per second for each window size; a window of 1 is a client that
+ * waits for each response before sending the next request. Like
+ * ExpressionHttpServer.main, it turns Nagle's algorithm off unless the
+ * command line sets ExpressionHttpServer.NO_DELAY_PROPERTY.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.HttpBenchmark [clients] [workers]
+ */
+public class HttpBenchmark {
+    private static final long MEASURED_MILLIS = 4_000;
+    private static final int[] WINDOWS = { 1, 4, 16 };
+    private static final String EXPRESSION = "3*x*x*y + 2*x*y*y + (x + 1)*(y + 2) + 7";
+    private static final String[] REQUESTS = {
+        request("/differentiate?var=x", EXPRESSION),
+        request("/simplify?x=2&y=0.5", EXPRESSION),
+        request("/differentiate/all?var=y", EXPRESSION + "\n" + EXPRESSION + "\nx*y\n"),
+    };
+
+    private static String request(String pathAndQuery, String body) {
+        return "POST " + pathAndQuery + " HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n" + body;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int workers = (args.length > 1) ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors();
+        if (System.getProperty(ExpressionHttpServer.NO_DELAY_PROPERTY) == null) {
+            System.setProperty(ExpressionHttpServer.NO_DELAY_PROPERTY, "true");
+        }
+        try (ExpressionHttpServer server = new ExpressionHttpServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), workers)) {
+            run(server, clientCount, 1, 1_000); // warm up
+            for (int window : WINDOWS) {
+                long answered = run(server, clientCount, window, MEASURED_MILLIS);
+                System.out.printf("%d clients, %d workers, window %2d: %.0f requests/s%n",
+                        clientCount, workers, window, answered * 1000.0 / MEASURED_MILLIS);
+            }
+        }
+    }
+
+    /** @return number of requests answered by clientCount clients in millis */
+    private static long run(ExpressionHttpServer server, int clientCount, int window, long millis)
+            throws InterruptedException {
+        AtomicLong answered = new AtomicLong();
+        long deadline = System.currentTimeMillis() + millis;
+        List<Thread> clients = new ArrayList<>();
+        for (int c = 0; c < clientCount; c++) {
+            Thread client = new Thread(() -> {
+                try (Socket socket = new Socket(server.address().getAddress(), server.address().getPort())) {
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = new BufferedInputStream(socket.getInputStream());
+                    for (int i = 0; System.currentTimeMillis() < deadline; ) {
+                        StringBuilder batch = new StringBuilder();
+                        for (int w = 0; w < window; w++, i++) {
+                            batch.append(REQUESTS[i % REQUESTS.length]);
+                        }
+                        out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                        for (int w = 0; w < window; w++) {
+                            skipResponse(in);
+                        }
+                        answered.addAndGet(window);
+                    }
+                } catch (IOException ioe) {
+                    throw new RuntimeException(ioe);
+                }
+            });
+            clients.add(client);
+            client.start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return answered.get();
+    }
+
+    /** Reads one response with a Content-Length, and drops it */
+    private static void skipResponse(InputStream in) throws IOException {
+        int length = 0;
+        for (String header; !(header = readLine(in)).isEmpty(); ) {
+            if (header.regionMatches(true, 0, "Content-Length:", 0, "Content-Length:".length())) {
+                length = Integer.parseInt(header.substring("Content-Length:".length()).trim());
+            }
+        }
+        for (long skipped = 0; skipped < length; ) {
+            long count = in.skip(length - skipped);
+            if (count <= 0) {
+                throw new IOException("response ended early");
+            }
+            skipped += count;
+        }
+    }
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b < 0) {
+                throw new IOException("response ended early");
+            }
+            if (b != '\r') {
+                line.append((char) b);
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import expressivo.parser.ExpressionFastParser;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for Interner
+ */
+public class InternerTest {
+    // Testing Strategy
+    //  Partitions for nodes created while interning is enabled:
+    //   Value, Variable, Addition, Multiplication
+    //   equal shapes from separate parses, shared subtrees within one parse
+    //  Partitions for intern: Expression -> Expression
+    //   tree built with constructors, tree already canonical,
+    //   sums with different groupings
+
+    private boolean wasEnabled;
+
+    @Before
+    public void enable() {
+        wasEnabled = Interner.isEnabled();
+        Interner.setEnabled(true);
+    }
+    @After
+    public void restore() {
+        Interner.setEnabled(wasEnabled);
+    }
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers all variants, equal shapes from separate parses
+    public void testParse_SharesEqualTrees() {
+        Expression first = ExpressionFastParser.parse("(x + 2.5)*(y + z) + x*y");
+        Expression second = ExpressionFastParser.parse("(x + 2.5)*(y + z) + x*y");
+
+        assertSame("Expected one instance for equal trees", first, second);
+    }
+    @Test
+    // covers shared subtrees within one parse
+    public void testDifferentiate_SharesSubtrees() {
+        Expression expr = ExpressionFastParser.parse("(x + y)*(x + y)");
+        Expression deriv = expr.differentiate("z");
+
+        assertSame("Expected the shared zero", Value.ZERO, deriv);
+        assertSame("Expected equal operands to be one instance",
+                ((Multiplication) expr).left(), ((Multiplication) expr).right());
+        assertSame("Expected substitution of a constant tree to share nodes",
+                expr, expr.substitute(Collections.emptyMap()));
+    }
+    @Test
+    // covers tree built with constructors, tree already canonical
+    public void testIntern_Constructed() {
+        Variable x = new Variable("x");
+        Expression built = new Multiplication(new Addition(x, new Value(1)), x);
+        Expression parsed = ExpressionFastParser.parse("(x + 1)*x");
+        Expression interned = Interner.intern(built);
+
+        assertSame("Expected the parsed instance", parsed, interned);
+        assertSame("Expected canonical tree unchanged", interned, Interner.intern(interned));
+        assertTrue("Expected table to hold nodes", Interner.size() > 0);
+    }
+    @Test
+    // covers sums with different groupings
+    public void testIntern_GroupingKept() {
+        Value three = new Value(3);
+        Value four = new Value(4);
+        Value five = new Value(5);
+        Expression leftGrouped = Interner.intern(new Addition(new Addition(three, four), five));
+        Expression rightGrouped = Interner.intern(new Addition(three, new Addition(four, five)));
+
+        assertNotSame("Expected groupings kept apart", leftGrouped, rightGrouped);
+        assertEquals("Expected groupings still equal", leftGrouped, rightGrouped);
+    }
+}
@@ -0,0 +1,127 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Metadata and the operations that use it
+ */
+public class MetadataTest {
+    // Testing Strategy
+    //  Partitions for variables, nodeCount, depth, degree:
+    //   expression: Value, Variable, sum, product, nested, prefix of a
+    //   node, node sharing operands with another
+    //  Partitions for differentiate: subtree with the variable, without it
+    //  Partitions for substitute(Environment): subtrees with bound
+    //   variables, without any, with sums that rebuilding would simplify;
+    //   variable bound then unbound; empty environment
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers Value, Variable
+    public void testMetadata_Leaves() {
+        Expression number = new Value(2);
+        Expression variable = new Variable("x");
+        
+        assertEquals("Expected no variables", 0, Metadata.variables(number));
+        assertTrue("Expected x", Metadata.mayContain(variable, "x"));
+        assertEquals("Expected one node", 1, Metadata.nodeCount(number));
+        assertEquals("Expected depth 1", 1, Metadata.depth(variable));
+        assertEquals("Expected degree 0", 0, Metadata.degree(number));
+        assertEquals("Expected degree 1", 1, Metadata.degree(variable));
+    }
+    @Test
+    // covers sum, product, nested
+    public void testMetadata_Nested() {
+        // binary tree: ((x*y)*x) + (2 + (y*y)*(y))
+        Expression expr = new Addition(
+                new Multiplication(new Multiplication(new Variable("x"), new Variable("y")),
+                        new Variable("x")),
+                new Addition(new Value(2), new Multiplication(
+                        new Multiplication(new Variable("y"), new Variable("y")), new Variable("y"))));
+        
+        assertTrue("Expected x", Metadata.mayContain(expr, "x"));
+        assertTrue("Expected y", Metadata.mayContain(expr, "y"));
+        assertFalse("Expected no z", Metadata.mayContain(expr, "z"));
+        assertEquals("Expected nodes", 5 + 1 + 5 + 2, Metadata.nodeCount(expr));
+        assertEquals("Expected degree", 3, Metadata.degree(expr));
+        assertEquals("Expected depth of the binary tree", 5, Metadata.depth(expr));
+    }
+    @Test
+    // covers prefix of a node, node sharing operands with another
+    public void testMetadata_Prefixes() {
+        Multiplication xy = new Multiplication(new Variable("x"), new Variable("y"));
+        Multiplication xyz = new Multiplication(xy, new Variable("z"));
+        Multiplication xy2 = new Multiplication(xy, new Value(2));
+        
+        Multiplication prefix = (Multiplication) xyz.left();
+        assertEquals("Expected prefix variables", xy.variables(), prefix.variables());
+        assertEquals("Expected prefix nodes", 3, prefix.nodeCount());
+        assertFalse("Expected no z in the sibling", Metadata.mayContain(xy2, "z"));
+        assertTrue("Expected z", Metadata.mayContain(xyz, "z"));
+        assertEquals("Expected degree", 3, xyz.degree());
+        assertEquals("Expected degree", 2, xy2.degree());
+        assertEquals("Expected depth", 3, xy2.depth());
+    }
+    @Test
+    // covers differentiate, subtree with the variable, without it
+    public void testDifferentiate_Pruned() {
+        Expression constant = Expression.parse("(a + b)*(c*d + 1)*a");
+        Expression expr = new Addition(new Variable("x"), constant);
+        
+        assertSame("Expected zero at once", Value.ZERO, constant.differentiate("x"));
+        assertEquals("Expected derivative", new Value(1), expr.differentiate("x"));
+    }
+    @Test
+    // covers substitute, subtrees with bound variables, without any,
+    //        empty environment
+    public void testSubstitute_SharedUntouched() {
+        Expression untouched = Expression.parse("(a + b)*(c*d + 1)");
+        Expression expr = new Multiplication(new Addition(new Variable("x"), new Value(1)), untouched);
+        Environment environment = Environment.of(Arrays.asList("x", "y"));
+        
+        assertSame("Expected same instance", expr, expr.substitute(environment));
+        environment.set("y", 3);
+        assertSame("Expected same instance", expr, expr.substitute(environment));
+        environment.set("x", 2);
+        Expression substituted = expr.substitute(environment);
+        assertEquals("Expected substituted", Expression.parse("3*((a + b)*(c*d + 1))"), substituted);
+        assertSame("Expected the untouched subtree shared", untouched,
+                ((Multiplication) substituted).factor(1));
+        assertSame("Expected same instance",
+                untouched, untouched.substitute(Environment.of(Collections.emptyMap())));
+    }
+    @Test
+    // covers substitute, subtrees without bound variables, empty environment
+    public void testSubstitute_UntouchedNotSimplifiedAgain() {
+        Map<String, Double> none = Collections.emptyMap();
+        Map<String, Double> other = Collections.singletonMap("x", 1.5);
+        
+        assertEquals("Expected parsed form", "z + 8 + 8", Expression.parse("z+8+4+4").toString());
+        assertEquals("Expected sum kept as parsed", "z + 8 + 8", Commands.simplify("z+8+4+4", none));
+        assertEquals("Expected sum kept as parsed", "z + 8 + 8", Commands.simplify("z+8+4+4", other));
+        // rebuilding it with addExpr, as substitute used to, merges the 8s
+        assertEquals("Expected the rebuilt sum", "z + 16",
+                Expression.parse("z").addExpr(new Value(8)).addExpr(new Value(8)).toString());
+    }
+    @Test
+    // covers variable bound then unbound
+    public void testSubstitute_Unbound() {
+        Expression expr = Expression.parse("x*y + 1");
+        Environment environment = Environment.of(Arrays.asList("x"));
+        environment.set("x", 2);
+        Environment copy = environment.copy();
+        environment.unset(0);
+        
+        assertSame("Expected same instance", expr, expr.substitute(environment));
+        assertEquals("Expected substituted copy", Expression.parse("2*y + 1"), expr.substitute(copy));
+    }
+}
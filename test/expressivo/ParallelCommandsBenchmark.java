@@ -0,0 +1,84 @@
+package expressivo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how Commands.differentiateAll and Commands.simplifyAll scale
+ * with the number of workers, from 1 to the number of available processors
+ * (or the count given as argument), doubling each time, against the
+ * sequential loop over differentiate and simplify.
+ *
+ * The expressions are distinct polynomials, more than the parse cache holds,
+ * so every batch parses most of them again.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.ParallelCommandsBenchmark [workers]
+ */
+public class ParallelCommandsBenchmark {
+    private static final int EXPRESSIONS = 20_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int maxWorkers = (args.length > 0)
+                ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Random random = new Random(6005);
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            StringBuilder input = new StringBuilder();
+            for (int t = 0; t < 8; t++) {
+                input.append(random.nextInt(1000) / 8.0);
+                for (int f = random.nextInt(4); f > 0; f--) {
+                    input.append('*').append((char) ('a' + random.nextInt(6)));
+                }
+                input.append(" + ");
+            }
+            expressions.add(input.append(i).toString());
+        }
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("a", 1.5);
+        environment.put("c", 2.0);
+
+        System.out.printf("%d expressions%n%-14s %8s %14s %8s%n",
+                EXPRESSIONS, "command", "workers", "expressions/s", "speedup");
+        double sequential = rate(() -> {
+            for (String expression : expressions) {
+                Commands.differentiate(expression, "a");
+            }
+        });
+        System.out.printf("%-14s %8s %14.0f%n", "differentiate", "loop", sequential);
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            double rate = rate(() -> Commands.differentiateAll(expressions, "a", pool));
+            System.out.printf("%-14s %8d %14.0f %8.2f%n", "differentiate", workers, rate, rate / sequential);
+            pool.shutdown();
+        }
+        sequential = rate(() -> {
+            for (String expression : expressions) {
+                Commands.simplify(expression, environment);
+            }
+        });
+        System.out.printf("%-14s %8s %14.0f%n", "simplify", "loop", sequential);
+        for (int workers = 1; workers <= maxWorkers; workers *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            double rate = rate(() -> Commands.simplifyAll(expressions, environment, pool));
+            System.out.printf("%-14s %8d %14.0f %8.2f%n", "simplify", workers, rate, rate / sequential);
+            pool.shutdown();
+        }
+    }
+    /** @return expressions handled per second by batch, the best of ROUNDS runs after one warmup */
+    private static double rate(Runnable batch) {
+        batch.run();
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            batch.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return EXPRESSIONS * 1e9 / best;
+    }
+}
@@ -0,0 +1,92 @@
+package expressivo;
+
+import expressivo.parser.ExpressionFastParser;
+import expressivo.parser.ExpressionLexer;
+import expressivo.parser.ExpressionMainVisitor;
+import expressivo.parser.ExpressionParser;
+
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Compares the throughput of the parsers of Expression:
+ *   fast         the hand-written parser behind Expression.parse
+ *   antlr        Expression.parseReference, a per-thread SLL-first pipeline
+ *   antlr-fresh  a new ANTLR lexer and LL parser for every input
+ * The parse cache is bypassed so that every call really parses.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.ParseBenchmark
+ */
+public class ParseBenchmark {
+    private static final String[] FLAT = {
+        "x*y + x + 0.5",
+        "(x + y)*(x + 1)*(2*z + 3.25)",
+        "3*x*x*x + 2*x*y*y + 0.5*y + 7",
+        "((a + b)*(c + d) + (e + f)*(g + h))*(i + j)",
+    };
+    private static final String[] NESTED = {
+        nested(16), nested(32), nested(64),
+    };
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    public static void main(String[] args) {
+        System.out.printf("%-8s %-12s %12s%n", "inputs", "parser", "parses/s");
+        for (int round = 0; round < 2; round++) {
+            report("flat", FLAT);
+            report("nested", NESTED);
+        }
+    }
+    /** @return an expression with depth levels of brackets, alternating + and * */
+    private static String nested(int depth) {
+        StringBuilder input = new StringBuilder("x");
+        for (int i = 0; i < depth; i++) {
+            input.insert(0, '(').append(i % 2 == 0 ? " + y" : ")*z");
+            if (i % 2 == 0) {
+                input.append(')');
+            }
+        }
+        return input.toString();
+    }
+    private static void report(String inputsName, String[] inputs) {
+        report(inputsName, "fast", inputs, ExpressionFastParser::parse);
+        report(inputsName, "antlr", inputs, Expression::parseReference);
+        report(inputsName, "antlr-fresh", inputs, ParseBenchmark::parseFresh);
+    }
+    private static void report(String inputsName, String parserName,
+            String[] inputs, Function<String, Expression> parser) {
+        measure(inputs, parser, WARMUP_NANOS);
+        System.out.printf("%-8s %-12s %12.0f%n", inputsName, parserName,
+                measure(inputs, parser, MEASURED_NANOS));
+    }
+    /** @return parses per second of inputs, run for about duration nanoseconds */
+    private static double measure(String[] inputs,
+            Function<String, Expression> parser, long duration) {
+        long parses = 0;
+        int sink = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (String input : inputs) {
+                sink += parser.apply(input).hashCode();
+            }
+            parses += inputs.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        if (sink == 42) {
+            System.out.println();
+        }
+        return parses * 1e9 / elapsed;
+    }
+    /** Parses input the way Expression.parse did before pipelines were reused */
+    private static Expression parseFresh(String input) {
+        ExpressionLexer lexer = new ExpressionLexer(CharStreams.fromString(input));
+        lexer.reportErrorsAsExceptions();
+        ExpressionParser parser = new ExpressionParser(new CommonTokenStream(lexer));
+        parser.reportErrorsAsExceptions();
+        return new ExpressionMainVisitor().visit(parser.root());
+    }
+}
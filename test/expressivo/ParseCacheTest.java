@@ -0,0 +1,99 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Tests for ParseCache
+ */
+public class ParseCacheTest {
+    // Testing Strategy
+    //  Partitions for parse: ParseCache x String -> Expression
+    //   input: seen before, not seen before; valid, invalid
+    //   cache: capacity 0, capacity 1, capacity > 1
+    //   eviction: LRU, FIFO
+    //  Partitions for hits, misses, evictions, size, clear:
+    //   before and after lookups, after clear
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers input seen before, valid, capacity > 1
+    public void testParse_Hit() {
+        ParseCache cache = new ParseCache(4, ParseCache.Eviction.LRU);
+        Expression first = cache.parse("x*y + 1");
+        Expression second = cache.parse("x*y + 1");
+
+        assertSame("Expected shared instance", first, second);
+        assertEquals("Expected equal to parse",
+                Expression.parseReference("x*y + 1"), first);
+        assertEquals("Expected one hit", 1, cache.hits());
+        assertEquals("Expected one miss", 1, cache.misses());
+        assertEquals("Expected one entry", 1, cache.size());
+    }
+    @Test
+    // covers input invalid, seen before
+    public void testParse_NegativeCaching() {
+        AtomicInteger calls = new AtomicInteger();
+        ParseCache cache = new ParseCache(4, ParseCache.Eviction.LRU, input -> {
+            calls.incrementAndGet();
+            return Expression.parse(input);
+        });
+        for (int i = 0; i < 3; i++) {
+            try {
+                cache.parse("x + ");
+                fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+        assertEquals("Expected parser run once", 1, calls.get());
+        assertEquals("Expected two hits", 2, cache.hits());
+    }
+    @Test
+    // covers LRU eviction, capacity > 1
+    public void testParse_EvictLeastRecentlyUsed() {
+        ParseCache cache = new ParseCache(2, ParseCache.Eviction.LRU);
+        cache.parse("x");
+        cache.parse("y");
+        cache.parse("x");
+        cache.parse("z"); // evicts y
+        cache.parse("x");
+        cache.parse("y");
+
+        assertEquals("Expected two hits", 2, cache.hits());
+        assertEquals("Expected four misses", 4, cache.misses());
+        assertEquals("Expected two evictions", 2, cache.evictions());
+        assertEquals("Expected full cache", 2, cache.size());
+    }
+    @Test
+    // covers FIFO eviction, capacity 1
+    public void testParse_EvictFirstInserted() {
+        ParseCache cache = new ParseCache(1, ParseCache.Eviction.FIFO);
+        cache.parse("x");
+        cache.parse("x");
+        cache.parse("y");
+        cache.parse("x");
+
+        assertEquals("Expected one hit", 1, cache.hits());
+        assertEquals("Expected three misses", 3, cache.misses());
+        assertEquals("Expected two evictions", 2, cache.evictions());
+    }
+    @Test
+    // covers capacity 0, clear
+    public void testParse_Disabled() {
+        ParseCache cache = new ParseCache(0, ParseCache.Eviction.LRU);
+        cache.parse("x + y");
+        cache.parse("x + y");
+
+        assertEquals("Expected no hits", 0, cache.hits());
+        assertEquals("Expected no entries", 0, cache.size());
+        cache.clear();
+        assertEquals("Expected counters reset", 0, cache.misses());
+    }
+}
@@ -0,0 +1,84 @@
+package expressivo;
+
+import expressivo.parser.ExpressionFastParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Measures how the time to parse one long flat chain grows with its length,
+ * for chains of 1k, 10k and 100k terms:
+ *   distinct-sum   xa + xb + xc + ...
+ *   repeated-sum   x + x + x + ..., where addExpr doubles the last term at
+ *                  every other step
+ *   repeated-mult  x*y + x*y + ..., the same with products as terms
+ *   mixed          sums of products, with some terms repeated
+ *   product        xa*xb*xc*...
+ * Linear parsing shows as a roughly constant time per term. The reference
+ * parser is measured up to 10k terms only.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.ParseScalingBenchmark
+ */
+public class ParseScalingBenchmark {
+    private static final int[] LENGTHS = { 1_000, 10_000, 100_000 };
+    private static final int REFERENCE_MAX_LENGTH = 10_000;
+    private static final long MEASURED_NANOS = 1_000_000_000L;
+
+    public static void main(String[] args) {
+        Map<String, IntFunction<String>> chains = new LinkedHashMap<>();
+        chains.put("distinct-sum", i -> "x" + letters(i));
+        chains.put("repeated-sum", i -> "x");
+        chains.put("repeated-mult", i -> "x*y");
+        chains.put("mixed", i -> (i % 2 == 0) ? "2*x" + letters(i / 2 % 100) + "*y" : "3*x" + letters(i % 7));
+
+        System.out.printf("%-14s %-6s %8s %12s %12s%n", "chain", "parser", "terms", "ms/parse", "ns/term");
+        for (int round = 0; round < 2; round++) {
+            for (Map.Entry<String, IntFunction<String>> chain : chains.entrySet()) {
+                report(chain.getKey(), chain.getValue(), " + ");
+            }
+            report("product", i -> "x" + letters(i), "*");
+        }
+    }
+    /** @return a variable name suffix for i, made of letters */
+    private static String letters(int i) {
+        StringBuilder suffix = new StringBuilder();
+        do {
+            suffix.append((char) ('a' + i % 26));
+            i /= 26;
+        } while (i > 0);
+        return suffix.toString();
+    }
+    private static void report(String chainName, IntFunction<String> term, String separator) {
+        for (int length : LENGTHS) {
+            StringBuilder input = new StringBuilder(term.apply(0));
+            for (int i = 1; i < length; i++) {
+                input.append(separator).append(term.apply(i));
+            }
+            report(chainName, "fast", length, input.toString(), ExpressionFastParser::parse);
+            if (length <= REFERENCE_MAX_LENGTH) {
+                report(chainName, "antlr", length, input.toString(), Expression::parseReference);
+            }
+        }
+    }
+    private static void report(String chainName, String parserName, int length,
+            String input, Function<String, Expression> parser) {
+        // at least three parses, the first one not measured
+        int sink = parser.apply(input).hashCode();
+        long count = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sink += parser.apply(input).hashCode();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < MEASURED_NANOS || count < 2);
+        if (sink == 42) {
+            System.out.println();
+        }
+        System.out.printf("%-14s %-6s %8d %12.2f %12.0f%n", chainName, parserName, length,
+                elapsed / 1e6 / count, (double) elapsed / count / length);
+    }
+}
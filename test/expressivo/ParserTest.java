@@ -0,0 +1,133 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests that the hand-written parser behind Expression.parse agrees with the
+ * ANTLR reference parser, Expression.parseReference
+ */
+public class ParserTest {
+    // Testing Strategy
+    //  Partitions for parse, parseReference: String -> Expression
+    //   valid input: single number, single variable,
+    //                one operator, multiple operators of the same type,
+    //                multiple operators of different types,
+    //                redundant and nested brackets,
+    //                spaces and tabs around tokens, no whitespace,
+    //                long chains of one operator, distinct or repeated operands
+    //   invalid input: unknown character, unbalanced brackets,
+    //                  missing operand, adjacent operands,
+    //                  malformed number, newline
+    //  Partitions for sum, product: List<Expression> -> Expression
+    //   length: 1, 2, > 2
+    //   operands: distinct, repeated, zero, sums equal to the chain so far
+
+    private static final String[] VALID = {
+        "0", "1.000009", "3.14159265", "x", "Foo",
+        "2 + x", "x*y", "x + y + x", "x*x*x", "x*(2*y)", "(x*2)*y",
+        "x*y + x + 0.5", "(x + y)*(x + 1)", "1 + 2*3 + 4", "((((x))))",
+        "x\t+\ty", "2*x*y+3*x+x*x", "(1+2)*(3+4)*x + 0*y + 1*z",
+    };
+    private static final String[] INVALID = {
+        "x $ y", "(x + y", "x + y)", "x +", "* x", "x y", "2x",
+        "1.", "1.2.3", ".5", "x\ny", "()",
+    };
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers all valid partitions
+    public void testParse_AgreesWithReference() {
+        for (String input : VALID) {
+            Expression expected = Expression.parseReference(input);
+            Expression actual = Expression.parse(input);
+
+            assertEquals("Expected equal expressions for " + input,
+                    expected, actual);
+            assertEquals("Expected equal strings for " + input,
+                    expected.toString(), actual.toString());
+        }
+    }
+    @Test
+    // covers all invalid partitions
+    public void testParse_InvalidRejected() {
+        for (String input : INVALID) {
+            try {
+                Expression.parse(input);
+                fail("Expected IllegalArgumentException for " + input);
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+    }
+    @Test
+    // covers all invalid partitions
+    public void testParseReference_InvalidRejected() {
+        for (String input : INVALID) {
+            try {
+                Expression.parseReference(input);
+                fail("Expected IllegalArgumentException for " + input);
+            } catch (IllegalArgumentException iae) {
+                // expected
+            }
+        }
+    }
+    @Test
+    // covers long chains of one operator, distinct or repeated operands
+    public void testParse_LongChainsAgreeWithReference() {
+        String[] operands = { "x", "x*y", "2", "(x + y)", "(x + x)" };
+        for (String operand : operands) {
+            for (String operator : new String[] { " + ", "*" }) {
+                StringBuilder input = new StringBuilder(operand);
+                for (int i = 1; i < 2000; i++) {
+                    input.append(operator).append(i % 3 == 0 ? "z" : operand);
+                }
+                Expression expected = Expression.parseReference(input.toString());
+                Expression actual = Expression.parse(input.toString());
+
+                assertEquals("Expected equal expressions for " + operand + operator + "...",
+                        expected, actual);
+                assertEquals("Expected equal strings for " + operand + operator + "...",
+                        expected.toString(), actual.toString());
+            }
+        }
+    }
+    @Test
+    // covers length 1, 2, > 2; distinct, repeated, zero operands and sums
+    // equal to the chain so far
+    public void testSumProduct_AgreeWithPairwise() {
+        Expression x = Expression.parse("x");
+        Expression y = Expression.parse("y");
+        Expression zero = Expression.emptyExpression();
+        Expression[][] chains = {
+            { x },
+            { x, y },
+            { x, x, x, x, x },
+            { x, y, y, zero, y, x },
+            { x, y, Expression.parse("x + y"), x, Expression.parse("x*2 + y*2 + x") },
+            { x, y, x, Expression.parse("x + y"), y },
+        };
+        for (Expression[] chain : chains) {
+            List<Expression> operands = Arrays.asList(chain);
+            Expression sum = chain[0];
+            Expression product = chain[0];
+            for (int i = 1; i < chain.length; i++) {
+                sum = sum.addExpr(chain[i]);
+                product = product.multiplyExpr(chain[i]);
+            }
+
+            assertEquals("Expected pairwise sum for " + operands, sum, Expression.sum(operands));
+            assertEquals("Expected pairwise sum string for " + operands,
+                    sum.toString(), Expression.sum(operands).toString());
+            assertEquals("Expected pairwise product for " + operands,
+                    product, Expression.product(operands));
+        }
+    }
+}
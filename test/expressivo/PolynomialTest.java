@@ -0,0 +1,148 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Polynomial
+ */
+public class PolynomialTest {
+    // Testing Strategy
+    //  Partitions for of: Expression -> Polynomial
+    //   Value: 0, > 0; Variable; Addition with like terms apart, without;
+    //   Multiplication of sums, with repeated variables
+    //  Partitions for add, multiply: Polynomial x Polynomial -> Polynomial
+    //   either zero, constants, like terms, no like terms; results that
+    //   overflow a double
+    //  Partitions for differentiate: Polynomial x String -> Polynomial
+    //   variable absent, exponent 1, exponent > 1, repeated differentiation;
+    //   coefficient that overflows a double
+    //  Partitions for substitute: Polynomial x Map -> Polynomial
+    //   no variables in environment, some, all; value 0; values whose
+    //   powers overflow a double
+    //  Partitions for toExpression: Polynomial -> Expression
+    //   zero, constant, coefficient 1, coefficient != 1, several terms
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers Value 0, > 0, Variable
+    public void testOf_Leaves() {
+        assertEquals("Expected constant", Polynomial.constant(2.5),
+                Polynomial.of(new Value(2.5)));
+        assertEquals("Expected zero", Polynomial.constant(0),
+                Polynomial.of(new Value(0)));
+        assertEquals("Expected variable", Polynomial.variable("x"),
+                Polynomial.of(new Variable("x")));
+        assertTrue("Expected zero constant", Polynomial.constant(0).isConstant());
+        assertFalse("Expected variable not constant", Polynomial.variable("x").isConstant());
+    }
+    @Test
+    // covers Addition with like terms apart
+    public void testOf_LikeTermsApart() {
+        Polynomial poly = Polynomial.of(Expression.parse("x + y + x + 2 + 3"));
+
+        assertEquals("Expected like terms collected", 3, poly.termCount());
+        assertEquals("Expected canonical rendering",
+                "(2)*(x) + y + 5", poly.toString());
+    }
+    @Test
+    // covers Multiplication of sums, with repeated variables
+    public void testOf_ExpandsProducts() {
+        Polynomial poly = Polynomial.of(Expression.parse("(x + 1)*(x + 1)*y"));
+        Polynomial expected = Polynomial.of(Expression.parse("x*x*y + 2*x*y + y"));
+
+        assertEquals("Expected expanded product", expected, poly);
+        assertEquals("Expected highest degree first",
+                "((x)*(x))*(y) + ((2)*(x))*(y) + y", poly.toString());
+    }
+    @Test
+    // covers add, multiply: zero, constants, like terms, no like terms
+    public void testAddMultiply() {
+        Polynomial zero = Polynomial.constant(0);
+        Polynomial x = Polynomial.variable("x");
+        Polynomial y = Polynomial.variable("y");
+        Polynomial two = Polynomial.constant(2);
+
+        assertEquals("Expected x + 0 = x", x, x.add(zero));
+        assertEquals("Expected x*0 = 0", zero, x.multiply(zero));
+        assertEquals("Expected constants added", Polynomial.constant(4), two.add(two));
+        assertEquals("Expected x + x = 2x", two.multiply(x), x.add(x));
+        assertEquals("Expected commutative sum", x.add(y), y.add(x));
+        assertEquals("Expected commutative product", x.multiply(y), y.multiply(x));
+        assertEquals("Expected two terms", 2, x.add(y).termCount());
+    }
+    @Test
+    // covers add, multiply, differentiate, substitute: results that overflow a double
+    public void testOverflow_Clamped() {
+        Polynomial large = Polynomial.constant(Double.MAX_VALUE);
+        Polynomial x = Polynomial.variable("x");
+        Polynomial max = Polynomial.constant(Double.MAX_VALUE);
+
+        assertEquals("Expected sum clamped", max, large.add(large));
+        assertEquals("Expected product clamped", max, large.multiply(large));
+        assertEquals("Expected coefficient clamped", max.multiply(x),
+                large.multiply(x).add(large.multiply(x)));
+        assertEquals("Expected power clamped", max, Polynomial.of(Expression.parse("x*x*x"))
+                .substitute(Collections.singletonMap("x", 1e200)));
+        assertEquals("Expected derivative clamped", max.multiply(x),
+                large.multiply(x).multiply(x).differentiate("x"));
+    }
+    @Test
+    // covers differentiate: absent, exponent 1, exponent > 1, repeated
+    public void testDifferentiate() {
+        Polynomial poly = Polynomial.of(Expression.parse("x*x*x + 3*x*y + y"));
+
+        assertEquals("Expected derivative by x",
+                Polynomial.of(Expression.parse("3*x*x + 3*y")), poly.differentiate("x"));
+        assertEquals("Expected zero for absent variable",
+                Polynomial.constant(0), poly.differentiate("z"));
+
+        Polynomial deriv = poly;
+        for (int i = 0; i < 3; i++) {
+            deriv = deriv.differentiate("x");
+        }
+        assertEquals("Expected constant third derivative", Polynomial.constant(6), deriv);
+        assertEquals("Expected zero fourth derivative",
+                Polynomial.constant(0), deriv.differentiate("x"));
+    }
+    @Test
+    // covers substitute: none, some, all, value 0
+    public void testSubstitute() {
+        Polynomial poly = Polynomial.of(Expression.parse("x*x*y + 2*x + y + 1"));
+        Map<String, Double> some = new HashMap<>();
+        some.put("x", 2.0);
+        Map<String, Double> all = new HashMap<>(some);
+        all.put("y", 0.5);
+        Map<String, Double> zero = Collections.singletonMap("y", 0.0);
+
+        assertEquals("Expected no change", poly, poly.substitute(Collections.emptyMap()));
+        assertEquals("Expected like terms collected after substitution",
+                Polynomial.of(Expression.parse("5*y + 5")), poly.substitute(some));
+        assertEquals("Expected single number",
+                Polynomial.constant(7.5), poly.substitute(all));
+        assertEquals("Expected terms multiplied by 0 dropped",
+                Polynomial.of(Expression.parse("2*x + 1")), poly.substitute(zero));
+    }
+    @Test
+    // covers toExpression: zero, constant, coefficient 1 and != 1, several terms
+    public void testToExpression() {
+        Expression expr = Expression.parse("y*x + 2.5*x*x + 4");
+
+        assertEquals("Expected zero", new Value(0), Polynomial.constant(0).toExpression());
+        assertEquals("Expected constant", new Value(4), Polynomial.constant(4).toExpression());
+        assertEquals("Expected variable alone", new Variable("x"),
+                Polynomial.variable("x").toExpression());
+        assertEquals("Expected canonical order",
+                "((2.5)*(x))*(x) + (x)*(y) + 4", Polynomial.of(expr).toString());
+        assertEquals("Expected round trip",
+                Polynomial.of(expr), Polynomial.of(Polynomial.of(expr).toExpression()));
+    }
+}
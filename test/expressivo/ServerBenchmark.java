@@ -0,0 +1,82 @@
+package expressivo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures ExpressionServer over loopback: a number of idle connections
+ * are opened first, then a few active clients each send a command, wait
+ * for its answer and repeat, for a fixed time. Prints commands answered per
+ * second and the number of live threads in the process, to show that idle
+ * connections cost no thread.
+ *
+ * Not a JUnit test: run main() with assertions disabled, e.g.
+ *     java -cp bin:lib/antlr-4.7-complete.jar expressivo.ServerBenchmark [idle] [active] [workers]
+ */
+public class ServerBenchmark {
+    private static final long MEASURED_MILLIS = 5_000;
+    private static final String[] COMMANDS = {
+        "3*x*x*y + 2*x*y*y + (x + 1)*(y + 2) + 7", "!d/dx", "!simplify x=2 y=0.5", "!d/dy",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int idleCount = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+        int activeCount = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+        int workers = (args.length > 2) ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        try (ExpressionServer server = new ExpressionServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), workers)) {
+            List<Socket> idle = new ArrayList<>();
+            try {
+                for (int i = 0; i < idleCount; i++) {
+                    idle.add(new Socket(server.address().getAddress(), server.address().getPort()));
+                }
+                AtomicLong answered = new AtomicLong();
+                long deadline = System.currentTimeMillis() + MEASURED_MILLIS;
+                List<Thread> clients = new ArrayList<>();
+                for (int c = 0; c < activeCount; c++) {
+                    Thread client = new Thread(() -> {
+                        try (Socket socket = new Socket(server.address().getAddress(),
+                                server.address().getPort())) {
+                            OutputStream out = socket.getOutputStream();
+                            BufferedReader in = new BufferedReader(new InputStreamReader(
+                                    socket.getInputStream(), StandardCharsets.UTF_8));
+                            for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                                out.write((COMMANDS[i % COMMANDS.length] + "\n")
+                                        .getBytes(StandardCharsets.UTF_8));
+                                out.flush();
+                                in.readLine();
+                                answered.incrementAndGet();
+                            }
+                        } catch (IOException ioe) {
+                            throw new RuntimeException(ioe);
+                        }
+                    });
+                    clients.add(client);
+                    client.start();
+                }
+                int threads = Thread.activeCount();
+                for (Thread client : clients) {
+                    client.join();
+                }
+                System.out.printf("%d idle, %d active, %d workers: %.0f commands/s, "
+                        + "%d connections, %d threads (%d of them clients)%n",
+                        idleCount, activeCount, workers, answered.get() * 1000.0 / MEASURED_MILLIS,
+                        server.connections(), threads, activeCount);
+            } finally {
+                for (Socket socket : idle) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package expressivo;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for Session
+ */
+public class SessionTest {
+    // Testing Strategy
+    //  Partitions for execute: Session x String -> String
+    //   input: expression, valid or invalid; !d/d, with a variable or
+    //          malformed; !simplify, with assignments or malformed;
+    //          !canonicalize, alone or with arguments
+    //   session: without a current expression, with one; with numbers
+    //            of more than 5 decimal places; with derivatives of an
+    //            earlier expression
+    //  Partitions for currentExpression: Session -> Optional<Expression>
+    //   session: new, after an expression, after !d/d, after !simplify,
+    //            after an error
+
+    @Test(expected=AssertionError.class)
+    public void testAssertionsEnabled() {
+        assert false; // make sure assertions are enabled with VM argument: -ea
+    }
+    @Test
+    // covers session without a current expression, !d/d and !simplify, new session
+    public void testExecute_NoExpression() {
+        Session session = new Session();
+
+        assertFalse("Expected no expression", session.currentExpression().isPresent());
+        assertEquals("Expected message", "must enter an expression before using this command",
+                session.execute("!d/dx"));
+        assertEquals("Expected message", "must enter an expression before using this command",
+                session.execute("!simplify x=1"));
+    }
+    @Test
+    // covers valid expression, !d/d with a variable, !simplify with assignments,
+    //        currentExpression after each
+    public void testExecute_Chain() {
+        Session session = new Session();
+        Expression expr = Expression.parse("x*x*y + 3*x");
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("x", 2.0);
+        environment.put("y", 5.0);
+
+        assertEquals("Expected parsed expression", expr.toString(), session.execute("x*x*y + 3*x"));
+        assertEquals("Expected current expression", expr, session.currentExpression().get());
+
+        Expression derivative = expr.differentiate("x");
+        assertEquals("Expected derivative", derivative.toString(), session.execute("!d/dx"));
+        assertEquals("Expected derivative kept as a tree",
+                derivative, session.currentExpression().get());
+
+        assertEquals("Expected simplified derivative",
+                derivative.substitute(environment).toString(), session.execute("!simplify x=2 y=5"));
+        assertEquals("Expected value of 2*x*y + 3", Expression.parse("23"),
+                derivative.substitute(environment));
+        assertEquals("Expected current expression unchanged",
+                derivative, session.currentExpression().get());
+    }
+    @Test
+    // covers !d/d repeated, !d/d after a new expression whose subtrees
+    //        print like ones already differentiated
+    public void testExecute_DerivativesOfEarlierExpression() {
+        Session session = new Session();
+        Expression first = Expression.parse("x*x*x + x*y");
+        Expression second = Expression.parse("x*x*x + x*y + x*x");
+
+        session.execute("x*x*x + x*y");
+        session.execute("!d/dx");
+        assertEquals("Expected second derivative",
+                first.differentiate("x").differentiate("x").toString(), session.execute("!d/dx"));
+
+        session.execute("x*x*x + x*y + x*x");
+        assertEquals("Expected derivative of the new expression",
+                second.differentiate("x").toString(), session.execute("!d/dx"));
+        assertEquals("Expected derivative by another variable",
+                second.differentiate("x").differentiate("y").toString(), session.execute("!d/dy"));
+    }
+    @Test
+    // covers !canonicalize, !d/d repeated, currentExpression after !canonicalize
+    public void testExecute_CanonicalizeAfterDerivatives() {
+        Session session = new Session();
+        session.execute("x + y + x");
+        assertEquals("Expected like terms collected", "(2)*(x) + y", session.execute("!canonicalize"));
+        assertEquals("Expected canonical form kept",
+                Commands.canonicalize(Expression.parse("x + y + x")), session.currentExpression().get());
+
+        // (x + y + x)^3 grows under !d/dx, its canonical form doesn't
+        Expression expected = Expression.parse("(x + y + x)*(x + y + x)*(x + y + x)");
+        session.execute("(x + y + x)*(x + y + x)*(x + y + x)");
+        for (int i = 0; i < 3; i++) {
+            expected = expected.differentiate("x");
+            String derivative = session.execute("!d/dx");
+            String canonical = session.execute("!canonicalize");
+            assertEquals("Expected canonical derivative",
+                    Commands.canonicalize(expected).toString(), canonical);
+            assertTrue("Expected canonical form no longer than " + derivative,
+                    canonical.length() <= derivative.length());
+        }
+        assertEquals("Expected third derivative of 8*x^3", "48", session.execute("!canonicalize"));
+    }
+    @Test
+    // covers session with numbers of more than 5 decimal places, !d/d, !simplify
+    public void testExecute_KeepsFullPrecision() {
+        Session session = new Session();
+        Map<String, Double> environment = new HashMap<>();
+        environment.put("y", 1.000019);
+
+        session.execute("y*x*(0.5 + 0.123456)");
+        assertEquals("Expected derivative shown to 5 decimal places",
+                "(0.62345)*(y)", session.execute("!d/dx"));
+        // the console used to re-parse what it showed, and printed
+        // Commands.simplify("(0.62345)*(y)", environment), 0.62345
+        assertEquals("Expected the derivative's full coefficient",
+                "0.62346", session.execute("!simplify y=1.000019"));
+        assertEquals("Expected the shown form to differ", "0.62345",
+                Commands.simplify("(0.62345)*(y)", environment));
+    }
+    @Test
+    // covers invalid expression, malformed !d/d, !simplify and !canonicalize, session with
+    //        an expression, currentExpression after an error
+    public void testExecute_Errors() {
+        Session session = new Session();
+        session.execute("x + y");
+
+        assertTrue("Expected parse error",
+                session.execute("x + (").startsWith(IllegalArgumentException.class.getName()));
+        assertEquals("Expected usage",
+                Main.CommandSyntaxException.class.getName()
+                        + ": usage: !d/d must be followed by a variable name",
+                session.execute("!d/d 2"));
+        assertEquals("Expected usage",
+                Main.CommandSyntaxException.class.getName()
+                        + ": usage: !simplify var1=val1 var2=val2 ...",
+                session.execute("!simplify x"));
+        assertEquals("Expected usage",
+                Main.CommandSyntaxException.class.getName()
+                        + ": usage: !canonicalize takes no arguments",
+                session.execute("!canonicalize x"));
+        assertEquals("Expected current expression unchanged",
+                Expression.parse("x + y"), session.currentExpression().get());
+    }
+}